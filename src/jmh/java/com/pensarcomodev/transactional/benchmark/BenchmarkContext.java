@@ -0,0 +1,34 @@
+package com.pensarcomodev.transactional.benchmark;
+
+import com.pensarcomodev.transactional.TransactionalApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sobe o contexto Spring usado pelos benchmarks. Por padrão o banco é um container PostgreSQL criado pelo
+ * Testcontainers, mas pode ser apontado para um PostgreSQL local com -Dspring.datasource.url=... e
+ * -Dspring.datasource.driver-class-name=org.postgresql.Driver.
+ */
+public final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    public static ConfigurableApplicationContext start() {
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put("spring.datasource.url", "jdbc:tc:postgresql:13.2:////benchmark");
+        defaults.put("spring.datasource.driver-class-name", "org.testcontainers.jdbc.ContainerDatabaseDriver");
+        defaults.put("spring.jpa.hibernate.ddl-auto", "none");
+        defaults.put("spring.jpa.properties.hibernate.show_sql", "false");
+        defaults.put("logging.level.root", "WARN");
+        return new SpringApplicationBuilder(TransactionalApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties(defaults)
+                .run();
+    }
+}
@@ -0,0 +1,77 @@
+package com.pensarcomodev.transactional.benchmark;
+
+import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.repository.CompanyBatchRepository;
+import com.pensarcomodev.transactional.repository.CompanyRepository;
+import com.pensarcomodev.transactional.repository.EmployeeRepository;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Inserção de rowCount empresas pelo batch do JdbcTemplate e pelo saveAll do repositório, com batchSize registros por
+ * batch JDBC. A tabela é limpa antes de cada invocação, fora do tempo medido.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InsertBenchmark {
+
+    @Param({"1000", "10000"})
+    private int rowCount;
+
+    @Param({"50", "500"})
+    private int batchSize;
+
+    private ConfigurableApplicationContext context;
+    private CompanyRepository companyRepository;
+    private CompanyBatchRepository companyBatchRepository;
+    private EntityManager entityManager;
+    private TransactionTemplate transactionTemplate;
+    private List<Company> companies;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        companyRepository = context.getBean(CompanyRepository.class);
+        companyBatchRepository = context.getBean(CompanyBatchRepository.class);
+        entityManager = context.getBean(EntityManager.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        context.getBean(EmployeeRepository.class).deleteAllInBatch();
+    }
+
+    @Setup(Level.Invocation)
+    public void cleanTable() {
+        companyRepository.deleteAllInBatch();
+        companies = IntStream.rangeClosed(1, rowCount)
+                .mapToObj(i -> Company.builder()
+                        .document(String.format("%014d", i))
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public void companyBatchRepositorySaveAll() {
+        companyBatchRepository.saveAll(companies, batchSize);
+    }
+
+    @Benchmark
+    public List<Company> companyRepositorySaveAll() {
+        return transactionTemplate.execute(status -> {
+            entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+            return companyRepository.saveAll(companies);
+        });
+    }
+}
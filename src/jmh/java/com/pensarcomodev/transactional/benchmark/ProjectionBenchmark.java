@@ -0,0 +1,93 @@
+package com.pensarcomodev.transactional.benchmark;
+
+import com.pensarcomodev.transactional.dto.EmployeeDocument;
+import com.pensarcomodev.transactional.dto.EmployeeSummary;
+import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.entity.Employee;
+import com.pensarcomodev.transactional.repository.BulkCopyRepository;
+import com.pensarcomodev.transactional.repository.CompanyRepository;
+import com.pensarcomodev.transactional.repository.EmployeeBatchRepository;
+import com.pensarcomodev.transactional.repository.EmployeeRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Leitura dos rowCount funcionários de uma empresa como entidades gerenciadas, projeção por interface, DTO por
+ * construtor, lista de documentos e pelo JdbcTemplate com RowMapper, todas dentro de uma transação.
+ *
+ * A diferença de alocação por linha aparece com o profiler de GC do JMH, em gc.alloc.rate.norm (bytes por operação):
+ * ./gradlew jmh -PjmhInclude=ProjectionBenchmark -PjmhProfilers=gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProjectionBenchmark {
+
+    @Param({"1000", "10000"})
+    private int rowCount;
+
+    private ConfigurableApplicationContext context;
+    private EmployeeRepository employeeRepository;
+    private EmployeeBatchRepository employeeBatchRepository;
+    private TransactionTemplate transactionTemplate;
+    private Company company;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        employeeRepository = context.getBean(EmployeeRepository.class);
+        employeeBatchRepository = context.getBean(EmployeeBatchRepository.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        CompanyRepository companyRepository = context.getBean(CompanyRepository.class);
+        employeeRepository.deleteAllInBatch();
+        companyRepository.deleteAllInBatch();
+        company = companyRepository.save(Company.builder().document("00000000000001").build());
+        context.getBean(BulkCopyRepository.class).copyEmployees(IntStream.rangeClosed(1, rowCount)
+                .mapToObj(i -> Employee.builder()
+                        .document(String.format("%011d", i))
+                        .salary(BigDecimal.valueOf(5000))
+                        .company(company)
+                        .build()));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Employee> entities() {
+        return transactionTemplate.execute(status -> employeeRepository.findByCompany(company));
+    }
+
+    @Benchmark
+    public List<EmployeeDocument> interfaceProjection() {
+        return transactionTemplate.execute(status -> employeeRepository.findDocumentsByCompany(company));
+    }
+
+    @Benchmark
+    public List<EmployeeSummary> constructorProjection() {
+        return transactionTemplate.execute(status -> employeeRepository.findSummariesByCompany(company));
+    }
+
+    @Benchmark
+    public List<String> scalarProjection() {
+        return transactionTemplate.execute(status -> employeeRepository.listDocumentsByCompany(company));
+    }
+
+    @Benchmark
+    public List<EmployeeSummary> jdbcRowMapper() {
+        return transactionTemplate.execute(status -> employeeBatchRepository.findSummariesByCompany(company.getId()));
+    }
+
+    @Benchmark
+    public List<String> jdbcScalar() {
+        return transactionTemplate.execute(status -> employeeBatchRepository.findDocumentsByCompany(company.getId()));
+    }
+}
@@ -0,0 +1,75 @@
+package com.pensarcomodev.transactional.benchmark;
+
+import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.repository.BulkCopyRepository;
+import com.pensarcomodev.transactional.repository.CompanyRepository;
+import com.pensarcomodev.transactional.repository.EmployeeRepository;
+import com.pensarcomodev.transactional.service.LargeReadService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Leitura de uma tabela com rowCount empresas por stream e pelas paginações via offset e via índice com páginas de
+ * pageSize registros.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadBenchmark {
+
+    @Param({"10000", "100000"})
+    private int rowCount;
+
+    @Param({"1000", "5000"})
+    private int pageSize;
+
+    private ConfigurableApplicationContext context;
+    private CompanyRepository companyRepository;
+    private LargeReadService largeReadService;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        companyRepository = context.getBean(CompanyRepository.class);
+        largeReadService = context.getBean(LargeReadService.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        context.getBean(EmployeeRepository.class).deleteAllInBatch();
+        companyRepository.deleteAllInBatch();
+        context.getBean(BulkCopyRepository.class).copyCompanies(IntStream.rangeClosed(1, rowCount)
+                .mapToObj(i -> Company.builder()
+                        .document(String.format("%014d", i))
+                        .build()));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public void findAllWithStream(Blackhole blackhole) {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<Company> stream = companyRepository.findAllWithStream()) {
+                stream.forEach(blackhole::consume);
+            }
+        });
+    }
+
+    @Benchmark
+    public List<Integer> offsetPagination() {
+        return largeReadService.selectInBatchesWithOffsetPagination(pageSize);
+    }
+
+    @Benchmark
+    public List<Integer> indexPagination() {
+        return largeReadService.selectIndexPaginationWithoutTransaction(true, pageSize);
+    }
+}
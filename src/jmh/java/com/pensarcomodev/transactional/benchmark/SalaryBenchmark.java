@@ -0,0 +1,94 @@
+package com.pensarcomodev.transactional.benchmark;
+
+import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.entity.Employee;
+import com.pensarcomodev.transactional.repository.BulkCopyRepository;
+import com.pensarcomodev.transactional.repository.CompanyRepository;
+import com.pensarcomodev.transactional.repository.EmployeeRepository;
+import com.pensarcomodev.transactional.service.SalaryAdjustmentAggregator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Chamadas a EmployeeRepository.increaseSalary sobre rowCount funcionários, com batchSize chamadas por transação. Cada
+ * operação medida é uma transação; com rowCount pequeno as chamadas concentram-se em poucas linhas.
+ *
+ * As variantes contended rodam com 8 threads, comparando o UPDATE direto, que espera o lock da linha, com o
+ * SalaryAdjustmentAggregator, em que cada operação medida é o envio de batchSize aumentos e a espera pelo flush.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SalaryBenchmark {
+
+    @Param({"1", "1000"})
+    private int rowCount;
+
+    @Param({"1", "100"})
+    private int batchSize;
+
+    private ConfigurableApplicationContext context;
+    private EmployeeRepository employeeRepository;
+    private TransactionTemplate transactionTemplate;
+    private SalaryAdjustmentAggregator salaryAdjustmentAggregator;
+    private List<Long> employeeIds;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        employeeRepository = context.getBean(EmployeeRepository.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        salaryAdjustmentAggregator = context.getBean(SalaryAdjustmentAggregator.class);
+        CompanyRepository companyRepository = context.getBean(CompanyRepository.class);
+        employeeRepository.deleteAllInBatch();
+        companyRepository.deleteAllInBatch();
+        Company company = companyRepository.save(Company.builder().document("00000000000001").build());
+        context.getBean(BulkCopyRepository.class).copyEmployees(IntStream.rangeClosed(1, rowCount)
+                .mapToObj(i -> Employee.builder()
+                        .document(String.format("%011d", i))
+                        .salary(BigDecimal.valueOf(5000))
+                        .company(company)
+                        .build()));
+        employeeIds = employeeRepository.listIds();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public void increaseSalary() {
+        transactionTemplate.executeWithoutResult(status -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < batchSize; i++) {
+                employeeRepository.increaseSalary(employeeIds.get(random.nextInt(employeeIds.size())), BigDecimal.ONE);
+            }
+        });
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void increaseSalaryContended() {
+        increaseSalary();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void increaseSalaryAggregatedContended() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        CompletableFuture<?>[] futures = new CompletableFuture[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            futures[i] = salaryAdjustmentAggregator.increaseSalary(employeeIds.get(random.nextInt(employeeIds.size())), BigDecimal.ONE);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
@@ -17,20 +17,35 @@ public class ParallelTransactions {
     private Thread thread1;
     private Thread thread2;
 
-    private final PingPongLock lock = new PingPongLock();
-    private final Runnable waitPing = lock::waitPing;
-    private final Runnable ping = lock::ping;
-    private final Runnable pong = lock::pong;
+    private final TaskExecutorFactory taskExecutorFactory;
+    private final PingPongLock lock;
+    private final Runnable waitPing;
+    private final Runnable ping;
+    private final Runnable pong;
     private int lastTransaction = 0;
 
-    private final ScheduledExecutorService executor;
-
-    private ParallelTransactions() {
-        this.executor = Executors.newSingleThreadScheduledExecutor();
+    /**
+     * Compartilhado entre as instâncias, apenas agenda a liberação do lock nos passos expectBlock
+     */
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ParallelTransactions-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ParallelTransactions(TaskExecutorFactory taskExecutorFactory) {
+        this.taskExecutorFactory = taskExecutorFactory;
+        this.lock = new PingPongLock(taskExecutorFactory.getThreadMode());
+        this.waitPing = lock::waitPing;
+        this.ping = lock::ping;
+        this.pong = lock::pong;
     }
 
-    public static ParallelTransactions builder() {
-        return new ParallelTransactions();
+    /**
+     * As duas transações rodam em threads criadas pelo taskExecutorFactory, no modo de threads da aplicação.
+     */
+    public static ParallelTransactions builder(TaskExecutorFactory taskExecutorFactory) {
+        return new ParallelTransactions(taskExecutorFactory);
     }
 
     public ParallelTransactions action1(Runnable action) {
@@ -64,7 +79,7 @@ public class ParallelTransactions {
     }
 
     public ParallelTransactions expectBlock1(Runnable action) {
-        Runnable checkBlock = () -> executor.schedule(lock::sendPing, 100, TimeUnit.MILLISECONDS);
+        Runnable checkBlock = () -> EXECUTOR.schedule(lock::sendPing, 100, TimeUnit.MILLISECONDS);
         this.transactionActions1.add(checkBlock);
         this.transactionActions1.add(action);
         this.transactionActions1.add(lock::waitPong);
@@ -73,7 +88,7 @@ public class ParallelTransactions {
     }
 
     public ParallelTransactions expectBlock2(Runnable action) {
-        Runnable checkBlock = () -> executor.schedule(lock::sendPong, 100, TimeUnit.MILLISECONDS);
+        Runnable checkBlock = () -> EXECUTOR.schedule(lock::sendPong, 100, TimeUnit.MILLISECONDS);
         this.transactionActions2.add(checkBlock);
         this.transactionActions2.add(action);
         this.transactionActions2.add(lock::waitPing);
@@ -86,18 +101,18 @@ public class ParallelTransactions {
         transactionActions2.add(0, waitPing);
         transactionActions1.remove(transactionActions1.size() - 1);
         transactionActions2.remove(transactionActions2.size() - 1);
-        thread1 = new Thread(null, () -> {
+        thread1 = taskExecutorFactory.newThread("Transaction-1", () -> {
             log.info("Starting transaction 1");
             method1.accept(transactionActions1);
             log.info("Commiting transaction 1");
             lock.end();
-        }, "Transaction-1", 0);
-        thread2 = new Thread(null, () -> {
+        });
+        thread2 = taskExecutorFactory.newThread("Transaction-2", () -> {
             log.info("Starting transaction 2");
             method2.accept(transactionActions2);
             log.info("Commiting transaction 2");
             lock.end();
-        }, "Transaction-2", 0);
+        });
         thread1.start();
         thread2.start();
         thread1.join();
@@ -16,9 +16,10 @@ public class PingPongLock {
 
     private final Semaphore pingLock;
     private final Semaphore pongLock;
+    private final ThreadMode threadMode;
 
-
-    public PingPongLock() {
+    public PingPongLock(ThreadMode threadMode) {
+        this.threadMode = threadMode;
         this.pingLock = new Semaphore(1);
         this.pongLock = new Semaphore(1);
         this.pingLock.acquireUninterruptibly();
@@ -61,7 +62,7 @@ public class PingPongLock {
     }
 
     public void asyncEnd(int millis) {
-        new Thread(() -> {
+        TaskExecutors.newThread(threadMode, "PingPongLock-end", () -> {
             try {
                 Thread.sleep(millis);
                 end();
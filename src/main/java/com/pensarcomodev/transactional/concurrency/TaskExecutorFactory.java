@@ -0,0 +1,108 @@
+package com.pensarcomodev.transactional.concurrency;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Executors para os serviços, no modo definido por app.concurrency.thread-mode (platform ou virtual).
+ *
+ * Com threads de plataforma a quantidade de threads já limita quantas unidades de trabalho disputam conexões. Com
+ * threads virtuais milhares de tarefas podem estar em andamento, mas apenas maximumPoolSize delas conseguem uma
+ * conexão; as demais esperariam no pool até o connectionTimeout e falhariam. withConnection limita por um semáforo o
+ * número de unidades de trabalho simultâneas ao tamanho do pool, e a espera passa a ser barata na própria thread virtual.
+ *
+ * O executor compartilhado vive enquanto o contexto e é encerrado junto com ele. É usado por quem dispara tarefas de
+ * curta duração a cada execução, como o TransactionScheduler, em vez de criar e encerrar um executor a cada vez.
+ */
+@Slf4j
+@Component
+public class TaskExecutorFactory {
+
+    private final ThreadMode threadMode;
+    private final int connectionLimit;
+    private final Semaphore connectionPermits;
+    private final ExecutorService sharedExecutor;
+    private final ThreadLocal<Integer> depth = ThreadLocal.withInitial(() -> 0);
+
+    public TaskExecutorFactory(@Value("${" + ThreadMode.PROPERTY + ":platform}") String threadMode, DataSource dataSource) {
+        this.threadMode = ThreadMode.parse(threadMode);
+        this.connectionLimit = maximumPoolSize(dataSource);
+        this.connectionPermits = new Semaphore(connectionLimit, true);
+        this.sharedExecutor = TaskExecutors.newUnboundedExecutor(this.threadMode, "shared");
+        log.info("Running blocking work on {} threads, at most {} units of work holding connections", this.threadMode, connectionLimit);
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public int getConnectionLimit() {
+        return connectionLimit;
+    }
+
+    /**
+     * Executor sem limite de threads, as threads de plataforma ociosas são reaproveitadas. Não deve ser encerrado pelo
+     * chamador.
+     */
+    public ExecutorService getSharedExecutor() {
+        return sharedExecutor;
+    }
+
+    public ExecutorService newExecutor(String name, int threads) {
+        return TaskExecutors.newExecutor(threadMode, name, threads);
+    }
+
+    public Thread newThread(String name, Runnable task) {
+        return TaskExecutors.newThread(threadMode, name, task);
+    }
+
+    /**
+     * Executa uma unidade de trabalho que usa uma conexão, esperando uma vaga quando todas as conexões do pool estão
+     * em uso por outras unidades. Chamadas aninhadas na mesma thread reaproveitam a vaga da chamada externa.
+     */
+    public <T> T withConnection(Supplier<T> work) {
+        if (threadMode == ThreadMode.PLATFORM || depth.get() > 0) {
+            return work.get();
+        }
+        connectionPermits.acquireUninterruptibly();
+        depth.set(1);
+        try {
+            return work.get();
+        } finally {
+            depth.remove();
+            connectionPermits.release();
+        }
+    }
+
+    public void withConnection(Runnable work) {
+        withConnection(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sharedExecutor.shutdown();
+    }
+
+    private static int maximumPoolSize(DataSource dataSource) {
+        try {
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                return dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+            }
+        } catch (SQLException e) {
+            log.warn("Could not read the connection pool size", e);
+        }
+        return Integer.MAX_VALUE;
+    }
+}
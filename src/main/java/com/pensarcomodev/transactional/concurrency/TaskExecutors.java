@@ -0,0 +1,107 @@
+package com.pensarcomodev.transactional.concurrency;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Criação de threads e executors de plataforma ou virtuais.
+ *
+ * O projeto compila para Java 11, portanto as APIs de threads virtuais (Thread.ofVirtual e
+ * Executors.newThreadPerTaskExecutor) são acessadas por reflexão e só ficam disponíveis quando a aplicação roda em
+ * Java 21 ou superior.
+ */
+public final class TaskExecutors {
+
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = method(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private TaskExecutors() {
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Cria uma thread ainda não iniciada.
+     */
+    public static Thread newThread(ThreadMode mode, String name, Runnable task) {
+        if (mode == ThreadMode.VIRTUAL) {
+            return virtualThreadFactory(name, false).newThread(task);
+        }
+        return new Thread(null, task, name, 0);
+    }
+
+    /**
+     * PLATFORM: pool fixo de threads daemon. VIRTUAL: uma thread virtual nova por tarefa, sem limite, e threads é
+     * ignorado; o limite de concorrência no banco deve vir das conexões (ver TaskExecutorFactory.withConnection).
+     */
+    public static ExecutorService newExecutor(ThreadMode mode, String name, int threads) {
+        if (mode == ThreadMode.VIRTUAL) {
+            return newVirtualExecutor(name);
+        }
+        return Executors.newFixedThreadPool(threads, platformThreadFactory(name));
+    }
+
+    /**
+     * PLATFORM: pool de threads daemon criadas sob demanda e reaproveitadas. VIRTUAL: uma thread virtual por tarefa.
+     */
+    public static ExecutorService newUnboundedExecutor(ThreadMode mode, String name) {
+        if (mode == ThreadMode.VIRTUAL) {
+            return newVirtualExecutor(name);
+        }
+        return Executors.newCachedThreadPool(platformThreadFactory(name));
+    }
+
+    private static ThreadFactory platformThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ExecutorService newVirtualExecutor(String name) {
+        return (ExecutorService) invoke(NEW_THREAD_PER_TASK_EXECUTOR, null, virtualThreadFactory(name, true));
+    }
+
+    private static ThreadFactory virtualThreadFactory(String name, boolean numbered) {
+        if (!isVirtualThreadSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21, running on " + System.getProperty("java.version"));
+        }
+        Object builder = invoke(OF_VIRTUAL, null);
+        Class<?> builderClass = OF_VIRTUAL.getReturnType();
+        if (numbered) {
+            builder = invoke(method(builderClass, "name", String.class, long.class), builder, name + "-", 1L);
+        } else {
+            builder = invoke(method(builderClass, "name", String.class), builder, name);
+        }
+        return (ThreadFactory) invoke(method(builderClass, "factory"), builder);
+    }
+
+    private static Method method(Class<?> type, String name, Class<?>... parameters) {
+        try {
+            return type.getMethod(name, parameters);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.pensarcomodev.transactional.concurrency;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tipo de thread usado para executar trabalho bloqueante no banco. VIRTUAL requer Java 21; em versões anteriores
+ * é substituído por PLATFORM.
+ */
+@Slf4j
+public enum ThreadMode {
+    PLATFORM,
+    VIRTUAL;
+
+    /**
+     * Propriedade do Spring que define o modo usado por TaskExecutorFactory: platform ou virtual
+     */
+    public static final String PROPERTY = "app.concurrency.thread-mode";
+
+    public static ThreadMode parse(String value) {
+        if (value == null || value.isBlank()) {
+            return PLATFORM;
+        }
+        ThreadMode mode = valueOf(value.trim().toUpperCase());
+        if (mode == VIRTUAL && !TaskExecutors.isVirtualThreadSupported()) {
+            log.warn("Virtual threads require Java 21, running on {} with platform threads", System.getProperty("java.version"));
+            return PLATFORM;
+        }
+        return mode;
+    }
+}
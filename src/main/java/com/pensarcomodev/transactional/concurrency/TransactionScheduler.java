@@ -0,0 +1,305 @@
+package com.pensarcomodev.transactional.concurrency;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Generalização de ParallelTransactions para qualquer número de transações, com a ordem de execução declarada como
+ * uma lista de passos.
+ *
+ * Cada transação roda em uma thread do executor compartilhado do TaskExecutorFactory, no modo de threads da
+ * aplicação, e executa seus passos na ordem em que foram declarados, um de cada vez, quando o scheduler libera. O
+ * scheduler só libera o próximo passo quando o anterior terminou, ou, nos passos declarados com expectBlock, quando o
+ * backend da transação está esperando um lock no banco (pg_stat_activity.wait_event_type = 'Lock'). O bloqueio é
+ * observado no próprio banco em vez de presumido após um intervalo fixo. O último passo de cada transação só termina
+ * após o commit ou rollback dela.
+ *
+ * Exemplo de deadlock entre três transações:
+ *
+ * TransactionScheduler.builder(jdbcTemplate, taskExecutorFactory)
+ *         .transaction("T1", transactionService::transactional)
+ *         .transaction("T2", transactionService::transactional)
+ *         .transaction("T3", transactionService::transactional)
+ *         .step("T1", () -> lock(a))
+ *         .step("T2", () -> lock(b))
+ *         .step("T3", () -> lock(c))
+ *         .expectBlock("T1", () -> lock(b))
+ *         .expectBlock("T2", () -> lock(c))
+ *         .expectBlock("T3", () -> lock(a))
+ *         .execute();
+ *
+ * Se um passo falha, a transação é desfeita, seus passos seguintes são ignorados e a falha fica disponível no Result.
+ * Se um passo não termina ou não bloqueia dentro do timeout, os backends ainda ativos são cancelados com
+ * pg_cancel_backend para liberar as threads e execute lança IllegalStateException.
+ */
+@Slf4j
+public class TransactionScheduler {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TaskExecutorFactory taskExecutorFactory;
+    private final Map<String, Consumer<List<Runnable>>> transactions = new LinkedHashMap<>();
+    private final List<Step> steps = new ArrayList<>();
+    private Duration timeout = Duration.ofSeconds(10);
+
+    private TransactionScheduler(JdbcTemplate jdbcTemplate, TaskExecutorFactory taskExecutorFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.taskExecutorFactory = taskExecutorFactory;
+    }
+
+    public static TransactionScheduler builder(JdbcTemplate jdbcTemplate, TaskExecutorFactory taskExecutorFactory) {
+        return new TransactionScheduler(jdbcTemplate, taskExecutorFactory);
+    }
+
+    /**
+     * Declara uma transação, executada pelo método transacional que recebe a lista de runnables (ver
+     * TransactionService.transactional, readUncommitted e repeatableRead).
+     */
+    public TransactionScheduler transaction(String name, Consumer<List<Runnable>> transactionalMethod) {
+        if (transactions.putIfAbsent(name, transactionalMethod) != null) {
+            throw new IllegalArgumentException("Transaction " + name + " already declared");
+        }
+        return this;
+    }
+
+    public TransactionScheduler step(String transaction, Runnable action) {
+        return addStep(transaction, action, false);
+    }
+
+    /**
+     * Passo que deve ficar bloqueado esperando um lock. O próximo passo é liberado assim que o bloqueio é observado,
+     * enquanto este continua esperando; o passo seguinte da mesma transação só executa depois que este terminar.
+     */
+    public TransactionScheduler expectBlock(String transaction, Runnable action) {
+        return addStep(transaction, action, true);
+    }
+
+    public TransactionScheduler timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public Result execute() {
+        Map<String, Run> runs = new LinkedHashMap<>();
+        transactions.forEach((name, method) -> runs.put(name, new Run(name, method)));
+        for (Step step : steps) {
+            runs.get(step.transaction).steps.add(step);
+        }
+        List<String> completionOrder = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = taskExecutorFactory.getSharedExecutor();
+        try {
+            for (Run run : runs.values()) {
+                run.future = CompletableFuture.runAsync(() -> run.execute(completionOrder), executor);
+                await(run.started, "start of " + run.name);
+            }
+            for (Step step : steps) {
+                Run run = runs.get(step.transaction);
+                Step previous = run.lastDispatched;
+                if (previous != null) {
+                    awaitQuietly(previous.done, "step " + previous.index + " of " + run.name);
+                }
+                if (run.failure != null) {
+                    log.info("Skipping step {} of {}, transaction already failed", step.index, run.name);
+                    continue;
+                }
+                log.info("Running step {} of {}", step.index, run.name);
+                run.lastDispatched = step;
+                run.inbox.add(step);
+                if (step.expectBlock) {
+                    awaitBlocked(run, step);
+                } else {
+                    awaitQuietly(step.done, "step " + step.index + " of " + run.name);
+                }
+            }
+            for (Run run : runs.values()) {
+                awaitQuietly(run.future, "end of " + run.name);
+            }
+        } catch (RuntimeException e) {
+            // As threads de transações canceladas voltam ao executor sozinhas após o rollback
+            cancel(runs.values());
+            throw e;
+        }
+        Map<String, Throwable> failures = new LinkedHashMap<>();
+        runs.values().stream()
+                .filter(run -> run.failure != null)
+                .forEach(run -> failures.put(run.name, run.failure));
+        return new Result(failures, new ArrayList<>(completionOrder));
+    }
+
+    private TransactionScheduler addStep(String transaction, Runnable action, boolean expectBlock) {
+        if (!transactions.containsKey(transaction)) {
+            throw new IllegalArgumentException("Transaction " + transaction + " must be declared before its steps");
+        }
+        steps.add(new Step(steps.size() + 1, transaction, action, expectBlock));
+        return this;
+    }
+
+    private void awaitBlocked(Run run, Step step) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (step.done.isDone()) {
+                throw new IllegalStateException("Step " + step.index + " of " + run.name + " was expected to block but finished");
+            }
+            Boolean waiting = jdbcTemplate.query("select wait_event_type = 'Lock' from pg_stat_activity where pid = ?",
+                    rs -> rs.next() && rs.getBoolean(1),
+                    run.pid);
+            if (Boolean.TRUE.equals(waiting)) {
+                log.info("Step {} of {} is waiting for a lock", step.index, run.name);
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+        }
+        throw new IllegalStateException("Step " + step.index + " of " + run.name + " did not block within " + timeout);
+    }
+
+    private void await(CompletableFuture<?> future, String description) {
+        await(future, description, true);
+    }
+
+    /**
+     * Espera o término sem propagar a falha do passo, que fica registrada na transação.
+     */
+    private void awaitQuietly(CompletableFuture<?> future, String description) {
+        await(future, description, false);
+    }
+
+    private void await(CompletableFuture<?> future, String description, boolean propagateFailure) {
+        try {
+            future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Timed out waiting for " + description + ", is it blocked by a lock?", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for " + description, e);
+        } catch (ExecutionException e) {
+            if (propagateFailure) {
+                throw new IllegalStateException("Failed waiting for " + description, e.getCause());
+            }
+        }
+    }
+
+    private void cancel(Iterable<Run> runs) {
+        for (Run run : runs) {
+            if (run.pid != null && run.future != null && !run.future.isDone()) {
+                log.warn("Cancelling backend {} of {}", run.pid, run.name);
+                jdbcTemplate.queryForObject("select pg_cancel_backend(?)", Boolean.class, run.pid);
+            }
+        }
+    }
+
+    private static class Step {
+
+        private final int index;
+        private final String transaction;
+        private final Runnable action;
+        private final boolean expectBlock;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Step(int index, String transaction, Runnable action, boolean expectBlock) {
+            this.index = index;
+            this.transaction = transaction;
+            this.action = action;
+            this.expectBlock = expectBlock;
+        }
+    }
+
+    private class Run {
+
+        private final String name;
+        private final Consumer<List<Runnable>> method;
+        private final List<Step> steps = new ArrayList<>();
+        private final BlockingQueue<Step> inbox = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Void> started = new CompletableFuture<>();
+        private volatile Integer pid;
+        private volatile Throwable failure;
+        private Step lastDispatched;
+        private CompletableFuture<Void> future;
+
+        private Run(String name, Consumer<List<Runnable>> method) {
+            this.name = name;
+            this.method = method;
+        }
+
+        private void execute(List<String> completionOrder) {
+            String threadName = Thread.currentThread().getName();
+            Thread.currentThread().setName("Transaction-" + name);
+            try {
+                method.accept(Collections.singletonList(this::runSteps));
+                log.info("Transaction {} finished", name);
+                steps.forEach(step -> step.done.complete(null));
+            } catch (Throwable e) {
+                log.info("Transaction {} failed: {}", name, e.toString());
+                failure = e;
+                steps.forEach(step -> step.done.completeExceptionally(e));
+                started.completeExceptionally(e);
+            } finally {
+                completionOrder.add(name);
+                Thread.currentThread().setName(threadName);
+            }
+        }
+
+        private void runSteps() {
+            pid = jdbcTemplate.queryForObject("select pg_backend_pid()", Integer.class);
+            started.complete(null);
+            for (int i = 0; i < steps.size(); i++) {
+                Step step;
+                try {
+                    step = inbox.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for the next step of " + name, e);
+                }
+                step.action.run();
+                if (i < steps.size() - 1) {
+                    step.done.complete(null);
+                }
+            }
+        }
+    }
+
+    public static class Result {
+
+        private final Map<String, Throwable> failures;
+        private final List<String> completionOrder;
+
+        private Result(Map<String, Throwable> failures, List<String> completionOrder) {
+            this.failures = failures;
+            this.completionOrder = completionOrder;
+        }
+
+        public boolean isCommitted(String transaction) {
+            return !failures.containsKey(transaction);
+        }
+
+        public Optional<Throwable> getFailure(String transaction) {
+            return Optional.ofNullable(failures.get(transaction));
+        }
+
+        public Map<String, Throwable> getFailures() {
+            return failures;
+        }
+
+        /**
+         * Nomes das transações na ordem em que terminaram (commit ou rollback).
+         */
+        public List<String> getCompletionOrder() {
+            return completionOrder;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.pensarcomodev.transactional.config;
+
+import com.pensarcomodev.transactional.metrics.ConnectionHoldTrackingDataSource;
+import com.pensarcomodev.transactional.metrics.Metrics;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Dois pools de conexões para o mesmo banco:
+ *
+ * dataSource (primário), configurado por spring.datasource.hikari, usado pelo JPA, JdbcTemplate e transações.
+ * bulkDataSource, configurado por app.datasource.bulk.hikari, usado pelas leituras longas (varredura particionada e
+ * stream com StatelessSession). Como as varreduras seguram conexões por toda a sua duração, ficam em um pool separado e
+ * não deixam as requisições curtas sem conexão.
+ *
+ * Ambos têm as métricas do Hikari publicadas pelo actuator (hikaricp.connections.active, idle, pending e o histograma
+ * hikaricp.connections.acquire) e o tempo de uso de cada conexão registrado por ConnectionHoldTrackingDataSource.
+ */
+@Configuration
+public class DataSourceConfiguration {
+
+    public static final String BULK_DATA_SOURCE = "bulkDataSource";
+
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource")
+    public DataSourceProperties dataSourceProperties() {
+        return new DataSourceProperties();
+    }
+
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean(BULK_DATA_SOURCE)
+    @ConfigurationProperties("app.datasource.bulk.hikari")
+    public HikariDataSource bulkDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public static BeanPostProcessor connectionHoldTrackingPostProcessor(Environment environment, ObjectProvider<Metrics> metrics) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof HikariDataSource)
+                        || !environment.getProperty("app.datasource.hold-tracking.enabled", Boolean.class, true)) {
+                    return bean;
+                }
+                HikariDataSource hikari = (HikariDataSource) bean;
+                String pool = hikari.getPoolName() != null ? hikari.getPoolName() : beanName;
+                Duration threshold = Duration.ofMillis(environment.getProperty("app.datasource.long-held-threshold-ms", Long.class, 5000L));
+                return new ConnectionHoldTrackingDataSource(hikari, pool, threshold, metrics);
+            }
+        };
+    }
+}
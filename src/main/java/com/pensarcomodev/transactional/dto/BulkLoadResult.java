@@ -0,0 +1,21 @@
+package com.pensarcomodev.transactional.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkLoadResult {
+
+    private long rows;
+
+    private long durationMillis;
+
+    public long getRowsPerSecond() {
+        return durationMillis == 0 ? rows : rows * 1000 / durationMillis;
+    }
+}
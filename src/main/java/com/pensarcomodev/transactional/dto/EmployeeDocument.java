@@ -0,0 +1,11 @@
+package com.pensarcomodev.transactional.dto;
+
+/**
+ * Projeção de um funcionário com apenas id e documento.
+ */
+public interface EmployeeDocument {
+
+    Long getId();
+
+    String getDocument();
+}
@@ -0,0 +1,26 @@
+package com.pensarcomodev.transactional.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Funcionário sem a empresa carregada, criado por expressões select new nas queries JPQL ou por RowMapper.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class EmployeeSummary {
+
+    private Long id;
+
+    private String document;
+
+    private BigDecimal salary;
+
+    private Long companyId;
+}
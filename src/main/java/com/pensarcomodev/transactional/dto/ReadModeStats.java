@@ -0,0 +1,26 @@
+package com.pensarcomodev.transactional.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Estado do contexto de persistência ao final de uma leitura, para comparar transações comuns e somente leitura.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReadModeStats {
+
+    private int managedEntities;
+
+    /** Entidades com o estado carregado guardado para a verificação de alterações (dirty checking) */
+    private int snapshots;
+
+    /** Tempo de um flush explícito ao final da leitura, que percorre as entidades gerenciadas */
+    private long flushNanos;
+
+    private boolean connectionReadOnly;
+}
@@ -0,0 +1,62 @@
+package com.pensarcomodev.transactional.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.transaction.annotation.Isolation;
+
+/**
+ * Resultado de uma execução do ConcurrencyStressRunner em um nível de isolamento.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StressResult {
+
+    private Isolation isolation;
+
+    private long durationMillis;
+
+    /** Transações comitadas, incluindo as que precisaram de novas tentativas */
+    private long committed;
+
+    /** Transações que falharam definitivamente, por erro não repetível ou por esgotar as tentativas */
+    private long aborted;
+
+    /** Novas tentativas após deadlock, falha de serialização ou lock_timeout */
+    private long retries;
+
+    private double p50Millis;
+
+    private double p95Millis;
+
+    private double p99Millis;
+
+    /** Funcionários cujo salário final difere do inicial somado aos aumentos comitados (lost updates) */
+    private long salaryViolations;
+
+    /** Diferença entre a soma esperada e a soma real dos salários dos funcionários restantes */
+    private String salaryTotalDifference;
+
+    /** Funcionários apontando para empresas inexistentes */
+    private long orphanEmployees;
+
+    /** Leituras em que a soma dos salários de uma empresa mudou dentro da mesma transação */
+    private long nonRepeatableReads;
+
+    public double getCommittedPerSecond() {
+        return durationMillis == 0 ? committed : committed * 1000d / durationMillis;
+    }
+
+    public double getAbortRate() {
+        long total = committed + aborted;
+        return total == 0 ? 0 : (double) aborted / total;
+    }
+
+    public double getRetryRate() {
+        long total = committed + aborted;
+        return total == 0 ? 0 : (double) retries / total;
+    }
+}
@@ -0,0 +1,31 @@
+package com.pensarcomodev.transactional.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de um upsert em massa por documento. Linhas repetidas na entrada contam uma única vez.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UpsertResult {
+
+    /** Documentos que não existiam na tabela */
+    private long inserted;
+
+    /** Documentos existentes com algum valor diferente */
+    private long updated;
+
+    /** Documentos existentes com os mesmos valores, que não geram nova versão da linha */
+    private long unchanged;
+
+    private long durationMillis;
+
+    public long getRows() {
+        return inserted + updated + unchanged;
+    }
+}
@@ -4,6 +4,8 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 
@@ -13,11 +15,24 @@ import javax.persistence.*;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-@Cacheable(false)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Company.CACHE_REGION)
 public class Company {
 
+    /**
+     * Região do cache de segundo nível, só usada com hibernate.cache.use_second_level_cache=true (perfil cache). O
+     * tamanho e o tempo de expiração estão em application.conf.
+     */
+    public static final String CACHE_REGION = "company";
+
+    /**
+     * Quantidade de ids reservados a cada chamada da sequence, deve ser igual ao INCREMENT BY de company_seq.
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "company_seq")
+    @SequenceGenerator(name = "company_seq", sequenceName = "company_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     private String document;
@@ -0,0 +1,26 @@
+package com.pensarcomodev.transactional.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+@Data
+@Entity
+@Table(name = "company")
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Cacheable(false)
+public class CompanyIdentityGeneration {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String document;
+
+    private String name;
+}
@@ -0,0 +1,35 @@
+package com.pensarcomodev.transactional.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+/**
+ * Mapeamento da tabela company com controle de concorrência otimista. Cada update inclui "where version = ?" e
+ * falha com OptimisticLockException se outra transação alterou o registro desde a leitura, em vez de sobrescrever
+ * a alteração como acontece com Company.
+ */
+@Data
+@Entity
+@Table(name = "company")
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Cacheable(false)
+public class CompanyVersioned {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "company_versioned_seq")
+    @SequenceGenerator(name = "company_versioned_seq", sequenceName = "company_seq", allocationSize = Company.ID_ALLOCATION_SIZE)
+    private Long id;
+
+    private String document;
+
+    private String name;
+
+    @Version
+    private Long version;
+}
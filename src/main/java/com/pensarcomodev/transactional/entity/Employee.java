@@ -3,7 +3,9 @@ package com.pensarcomodev.transactional.entity;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import javax.persistence.*;
 import java.math.BigDecimal;
@@ -14,16 +16,34 @@ import java.math.BigDecimal;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
+@NamedEntityGraph(name = Employee.WITH_COMPANY, attributeNodes = @NamedAttributeNode("company"))
 public class Employee {
 
+    /**
+     * Grafo que carrega a empresa no mesmo select dos funcionários.
+     */
+    public static final String WITH_COMPANY = "Employee.withCompany";
+
+    /**
+     * Quantidade de ids reservados a cada chamada da sequence, deve ser igual ao INCREMENT BY de employee_seq.
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "employee_seq")
+    @SequenceGenerator(name = "employee_seq", sequenceName = "employee_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     private String document;
 
-    @ManyToOne
+    /**
+     * Carregada sob demanda. Quem precisa da empresa de vários funcionários deve usar o grafo WITH_COMPANY, caso
+     * contrário as empresas são buscadas em lotes de hibernate.default_batch_fetch_size ao primeiro acesso.
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "company_id")
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private Company company;
 
     private BigDecimal salary;
@@ -0,0 +1,36 @@
+package com.pensarcomodev.transactional.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.math.BigDecimal;
+
+/**
+ * Mapeamento da tabela employee com controle de concorrência otimista, ver CompanyVersioned.
+ */
+@Data
+@Entity
+@Table(name = "employee")
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class EmployeeVersioned {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "employee_versioned_seq")
+    @SequenceGenerator(name = "employee_versioned_seq", sequenceName = "employee_seq", allocationSize = Employee.ID_ALLOCATION_SIZE)
+    private Long id;
+
+    private String document;
+
+    @Column(name = "company_id")
+    private Long companyId;
+
+    private BigDecimal salary;
+
+    @Version
+    private Long version;
+}
@@ -0,0 +1,9 @@
+package com.pensarcomodev.transactional.exception;
+
+public class PersistenceContextOverflowException extends RuntimeException {
+
+    public PersistenceContextOverflowException(String method, int managedEntities, int maxManagedEntities) {
+        super(String.format("%d entities managed in %s, above the limit of %d. Clear the entityManager periodically " +
+                "or read with pagination or a StatelessSession", managedEntities, method, maxManagedEntities));
+    }
+}
@@ -0,0 +1,29 @@
+package com.pensarcomodev.transactional.metrics;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * Verifica periodicamente as conexões ainda em uso há mais que app.datasource.long-held-threshold-ms, para que uma
+ * conexão segurada indefinidamente seja reportada antes de ser devolvida.
+ */
+@Component
+@RequiredArgsConstructor
+public class ConnectionHoldMonitor {
+
+    private final ObjectProvider<DataSource> dataSources;
+
+    @Scheduled(fixedDelayString = "${app.datasource.long-held-check-interval-ms:1000}")
+    public void check() throws SQLException {
+        for (DataSource dataSource : dataSources) {
+            if (dataSource.isWrapperFor(ConnectionHoldTrackingDataSource.class)) {
+                dataSource.unwrap(ConnectionHoldTrackingDataSource.class).reportLongHeld();
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.pensarcomodev.transactional.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * DataSource que registra por quanto tempo cada conexão fica fora do pool e qual método a obteve.
+ *
+ * O dono da conexão é o primeiro frame da aplicação na pilha no momento em que ela é obtida, normalmente o método
+ * @Transactional de um serviço (pelo proxy do Spring) ou o método que chamou o repositório fora de uma transação.
+ * O tempo é gravado no timer jdbc.connection.hold (pool, owner). Conexões seguradas por mais que longHeldThreshold
+ * são logadas e contadas em jdbc.connection.long_held (pool, owner), tanto na devolução quanto enquanto ainda estão
+ * em uso, pela verificação periódica do ConnectionHoldMonitor.
+ */
+@Slf4j
+public class ConnectionHoldTrackingDataSource extends DelegatingDataSource {
+
+    private static final String BASE_PACKAGE = "com.pensarcomodev.transactional.";
+    private static final String METRICS_PACKAGE = BASE_PACKAGE + "metrics.";
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private final String pool;
+    private final long longHeldThresholdNanos;
+    private final ObjectProvider<Metrics> metricsProvider;
+    private final Set<Hold> open = ConcurrentHashMap.newKeySet();
+    private volatile Metrics metrics;
+
+    public ConnectionHoldTrackingDataSource(DataSource target, String pool, Duration longHeldThreshold, ObjectProvider<Metrics> metricsProvider) {
+        super(target);
+        this.pool = pool;
+        this.longHeldThresholdNanos = longHeldThreshold.toNanos();
+        this.metricsProvider = metricsProvider;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return track(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return track(super.getConnection(username, password));
+    }
+
+    public String getPool() {
+        return pool;
+    }
+
+    /**
+     * Loga as conexões ainda em uso há mais que o limite, uma vez por conexão.
+     */
+    public void reportLongHeld() {
+        long now = System.nanoTime();
+        for (Hold hold : open) {
+            long heldNanos = now - hold.start;
+            if (heldNanos > longHeldThresholdNanos && hold.reported.compareAndSet(false, true)) {
+                flag(hold, heldNanos, "still held");
+            }
+        }
+    }
+
+    private Connection track(Connection connection) {
+        Hold hold = new Hold(owner(), Thread.currentThread().getName());
+        open.add(hold);
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && closed.compareAndSet(false, true)) {
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        } finally {
+                            release(hold);
+                        }
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private void release(Hold hold) {
+        open.remove(hold);
+        long heldNanos = System.nanoTime() - hold.start;
+        Metrics metrics = metrics();
+        if (metrics != null) {
+            metrics.timer("jdbc.connection.hold", "pool", pool, "owner", hold.owner).record(heldNanos, TimeUnit.NANOSECONDS);
+        }
+        if (heldNanos > longHeldThresholdNanos && hold.reported.compareAndSet(false, true)) {
+            flag(hold, heldNanos, "held");
+        }
+    }
+
+    private void flag(Hold hold, long heldNanos, String state) {
+        log.warn("Connection of pool {} {} for {} ms by {} on thread {}",
+                pool, state, TimeUnit.NANOSECONDS.toMillis(heldNanos), hold.owner, hold.thread);
+        Metrics metrics = metrics();
+        if (metrics != null) {
+            metrics.getRegistry().counter("jdbc.connection.long_held", "pool", pool, "owner", hold.owner).increment();
+        }
+    }
+
+    private Metrics metrics() {
+        Metrics current = metrics;
+        if (current == null) {
+            current = metricsProvider.getIfAvailable();
+            metrics = current;
+        }
+        return current;
+    }
+
+    private static String owner() {
+        return WALKER.walk(frames -> frames
+                .filter(frame -> frame.getClassName().startsWith(BASE_PACKAGE) && !frame.getClassName().startsWith(METRICS_PACKAGE))
+                .findFirst()
+                .map(frame -> simpleName(frame.getClassName()) + "." + methodName(frame.getMethodName()))
+                .orElse("unknown"));
+    }
+
+    /**
+     * Remove o pacote e o sufixo dos proxies CGLIB do Spring e das classes internas.
+     */
+    private static String simpleName(String className) {
+        String name = className.substring(className.lastIndexOf('.') + 1);
+        int suffix = name.indexOf('$');
+        return suffix > 0 ? name.substring(0, suffix) : name;
+    }
+
+    /**
+     * lambda$scanAsync$3 -> scanAsync
+     */
+    private static String methodName(String methodName) {
+        if (methodName.startsWith("lambda$")) {
+            int end = methodName.indexOf('$', "lambda$".length());
+            return methodName.substring("lambda$".length(), end > 0 ? end : methodName.length());
+        }
+        return methodName;
+    }
+
+    private static class Hold {
+
+        private final long start = System.nanoTime();
+        private final String owner;
+        private final String thread;
+        private final AtomicBoolean reported = new AtomicBoolean();
+
+        private Hold(String owner, String thread) {
+            this.owner = owner;
+            this.thread = thread;
+        }
+    }
+}
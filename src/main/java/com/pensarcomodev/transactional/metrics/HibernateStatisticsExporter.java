@@ -0,0 +1,205 @@
+package com.pensarcomodev.transactional.metrics;
+
+import com.pensarcomodev.transactional.util.HibernateUtils;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.id.PostInsertIdentifierGenerator;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Publica as Statistics da SessionFactory no MeterRegistry. Os contadores acumulados são FunctionCounters lidos
+ * diretamente das Statistics a cada coleta, enquanto os valores pontuais (tempo máximo de query e hit ratio do cache)
+ * são amostrados periodicamente e publicados como gauges.
+ *
+ * As queries mais lentas são publicadas em hibernate.query.execution.slowest (query, rank), substituídas a cada
+ * amostra. Cada insert de entidade que não pode ser enviado em batch JDBC, como os de entidades com
+ * GenerationType.IDENTITY ou com hibernate.jdbc.batch_size desligado, incrementa hibernate.jdbc.batch.fallbacks
+ * (entity) e gera um alerta no log na primeira ocorrência de cada entidade.
+ *
+ * Cada região do cache de segundo nível tem seus acessos publicados em hibernate.second_level_cache.requests
+ * (region, result=hit|miss) e hibernate.second_level_cache.puts (region), lidos diretamente das Statistics.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.metrics.hibernate.enabled", havingValue = "true", matchIfMissing = true)
+public class HibernateStatisticsExporter {
+
+    private static final int MAX_QUERY_TAG_LENGTH = 200;
+
+    private final SessionFactoryImplementor sessionFactory;
+    private final Statistics statistics;
+    private final MeterRegistry registry;
+    private final int slowestQueries;
+    private final Map<String, Double> values = new ConcurrentHashMap<>();
+    private final AtomicReference<List<SlowQuery>> slowest = new AtomicReference<>(List.of());
+    private final Set<String> fallbackEntities = ConcurrentHashMap.newKeySet();
+    private MultiGauge slowestGauge;
+
+    public HibernateStatisticsExporter(EntityManagerFactory entityManagerFactory, MeterRegistry registry,
+                                       @Value("${app.metrics.hibernate.slowest-queries:5}") int slowestQueries) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        this.statistics = HibernateUtils.getStatistics(entityManagerFactory);
+        this.registry = registry;
+        this.slowestQueries = slowestQueries;
+    }
+
+    @PostConstruct
+    public void setup() {
+        if (!statistics.isStatisticsEnabled()) {
+            log.warn("Hibernate statistics are disabled, set hibernate.generate_statistics=true to export them");
+        }
+        counter("hibernate.jdbc.batches", "JDBC batches executed", s -> JdbcBatchSessionListener.getBatchCount());
+        FunctionCounter.builder("hibernate.jdbc.batch.time", statistics, s -> JdbcBatchSessionListener.getBatchNanos() / 1_000_000d)
+                .description("Time spent executing JDBC batches")
+                .baseUnit("milliseconds")
+                .register(registry);
+        counter("hibernate.statements.prepared", "JDBC statements prepared", Statistics::getPrepareStatementCount);
+        counter("hibernate.entities.loaded", "Entities loaded", Statistics::getEntityLoadCount);
+        counter("hibernate.entities.inserted", "Entities inserted", Statistics::getEntityInsertCount);
+        counter("hibernate.entities.updated", "Entities updated", Statistics::getEntityUpdateCount);
+        counter("hibernate.entities.deleted", "Entities deleted", Statistics::getEntityDeleteCount);
+        counter("hibernate.flushes", "Session flushes", Statistics::getFlushCount);
+        counter("hibernate.optimistic.failures", "Updates of versioned entities rejected by a concurrent change",
+                Statistics::getOptimisticFailureCount);
+        gauge("hibernate.query.execution.max", "Slowest query execution time in ms");
+        gauge("hibernate.second_level_cache.hit_ratio", "Second level cache hits / (hits + misses)");
+        slowestGauge = MultiGauge.builder("hibernate.query.execution.slowest")
+                .description("Max execution time of the slowest queries")
+                .baseUnit("milliseconds")
+                .register(registry);
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            regionCounter("hibernate.second_level_cache.requests", region, CacheRegionStatistics::getHitCount, "result", "hit");
+            regionCounter("hibernate.second_level_cache.requests", region, CacheRegionStatistics::getMissCount, "result", "miss");
+            regionCounter("hibernate.second_level_cache.puts", region, CacheRegionStatistics::getPutCount);
+        }
+        sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class)
+                .appendListeners(EventType.POST_INSERT, new BatchFallbackListener());
+        sample();
+    }
+
+    @Scheduled(fixedDelayString = "${app.metrics.hibernate.sample-interval-ms:10000}")
+    public synchronized void sample() {
+        values.put("hibernate.query.execution.max", (double) statistics.getQueryExecutionMaxTime());
+        long hits = statistics.getSecondLevelCacheHitCount();
+        long misses = statistics.getSecondLevelCacheMissCount();
+        values.put("hibernate.second_level_cache.hit_ratio", hits + misses == 0 ? 0d : (double) hits / (hits + misses));
+
+        List<SlowQuery> queries = Stream.of(statistics.getQueries())
+                .map(query -> {
+                    QueryStatistics queryStatistics = statistics.getQueryStatistics(query);
+                    return new SlowQuery(query, queryStatistics.getExecutionMaxTime(), queryStatistics.getExecutionCount());
+                })
+                .sorted(Comparator.comparingLong(SlowQuery::getMaxTimeMillis).reversed())
+                .limit(slowestQueries)
+                .collect(Collectors.toList());
+        slowest.set(queries);
+        // Com overwrite as queries que saíram da lista deixam de ser publicadas
+        slowestGauge.register(IntStream.range(0, queries.size())
+                .mapToObj(i -> MultiGauge.Row.of(Tags.of(
+                                "query", abbreviate(queries.get(i).getQuery()),
+                                "rank", String.valueOf(i + 1)),
+                        queries.get(i).getMaxTimeMillis()))
+                .collect(Collectors.toList()), true);
+        if (log.isDebugEnabled()) {
+            queries.forEach(query -> log.debug("Slow query {}", query));
+        }
+    }
+
+    public List<SlowQuery> getSlowestQueries() {
+        return slowest.get();
+    }
+
+    private void counter(String name, String description, ToDoubleFunction<Statistics> count) {
+        FunctionCounter.builder(name, statistics, count)
+                .description(description)
+                .register(registry);
+    }
+
+    private void gauge(String name, String description) {
+        values.put(name, 0d);
+        Gauge.builder(name, values, v -> v.getOrDefault(name, 0d))
+                .description(description)
+                .register(registry);
+    }
+
+    private void regionCounter(String name, String region, ToDoubleFunction<CacheRegionStatistics> count, String... tags) {
+        FunctionCounter.builder(name, statistics, s -> count.applyAsDouble(s.getDomainDataRegionStatistics(region)))
+                .tag("region", region)
+                .tags(tags)
+                .register(registry);
+    }
+
+    private static String abbreviate(String query) {
+        return query.length() <= MAX_QUERY_TAG_LENGTH ? query : query.substring(0, MAX_QUERY_TAG_LENGTH - 3) + "...";
+    }
+
+    /**
+     * Classifica cada insert no momento em que ele acontece, na sessão que o executou. Comparar os totais de inserts e
+     * batches entre duas amostras não funciona: um insert em batch concorrente esconde os inserts sem batch.
+     */
+    private class BatchFallbackListener implements PostInsertEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            EntityPersister persister = event.getPersister();
+            Integer batchSize = event.getSession().getConfiguredJdbcBatchSize();
+            boolean identity = persister.getIdentifierGenerator() instanceof PostInsertIdentifierGenerator;
+            if (!identity && batchSize != null && batchSize > 1) {
+                return;
+            }
+            String entity = persister.getEntityName();
+            registry.counter("hibernate.jdbc.batch.fallbacks", "entity", entity).increment();
+            if (fallbackEntities.add(entity)) {
+                log.warn("Inserts of {} are not sent in JDBC batches ({}), check the id generation strategy and hibernate.jdbc.batch_size",
+                        entity, identity ? "post insert id generation" : "batch size " + batchSize);
+            }
+        }
+
+        @Override
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return false;
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class SlowQuery {
+
+        private String query;
+
+        private long maxTimeMillis;
+
+        private long executionCount;
+    }
+}
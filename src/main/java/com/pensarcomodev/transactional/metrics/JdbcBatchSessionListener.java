@@ -0,0 +1,41 @@
+package com.pensarcomodev.transactional.metrics;
+
+import org.hibernate.engine.internal.StatisticalLoggingSessionEventListener;
+import org.hibernate.engine.spi.BaseSessionEventListener;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Conta os batches JDBC executados por todas as sessões. A SessionFactory não expõe essa informação nas Statistics,
+ * apenas o log por sessão de {@link StatisticalLoggingSessionEventListener}, por isso o listener é registrado em cada
+ * sessão pela propriedade hibernate.session.events.auto e acumula os valores em contadores globais.
+ */
+public class JdbcBatchSessionListener extends BaseSessionEventListener {
+
+    private static final LongAdder BATCHES = new LongAdder();
+    private static final LongAdder BATCH_NANOS = new LongAdder();
+
+    private long batchStart = -1;
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        batchStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        if (batchStart != -1) {
+            BATCH_NANOS.add(System.nanoTime() - batchStart);
+            batchStart = -1;
+        }
+        BATCHES.increment();
+    }
+
+    public static long getBatchCount() {
+        return BATCHES.sum();
+    }
+
+    public static long getBatchNanos() {
+        return BATCH_NANOS.sum();
+    }
+}
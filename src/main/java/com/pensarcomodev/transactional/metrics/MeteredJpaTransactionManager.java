@@ -0,0 +1,63 @@
+package com.pensarcomodev.transactional.metrics;
+
+import io.micrometer.core.instrument.Timer;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JpaTransactionManager que mede a duração de cada transação física, do início ao commit ou rollback, no timer
+ * "transaction.duration" com as tags name (Classe.método transacional), outcome e read_only.
+ */
+public class MeteredJpaTransactionManager extends JpaTransactionManager {
+
+    private final Metrics metrics;
+
+    public MeteredJpaTransactionManager(EntityManagerFactory entityManagerFactory, Metrics metrics) {
+        super(entityManagerFactory);
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void prepareSynchronization(DefaultTransactionStatus status, TransactionDefinition definition) {
+        super.prepareSynchronization(status, definition);
+        if (status.isNewTransaction() && status.isNewSynchronization()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new DurationSynchronization(name(definition), definition.isReadOnly()));
+        }
+    }
+
+    private static String name(TransactionDefinition definition) {
+        String name = definition.getName();
+        if (name == null) {
+            return "unnamed";
+        }
+        int methodSeparator = name.lastIndexOf('.');
+        int classSeparator = methodSeparator > 0 ? name.lastIndexOf('.', methodSeparator - 1) : -1;
+        return name.substring(classSeparator + 1);
+    }
+
+    private class DurationSynchronization implements TransactionSynchronization {
+
+        private final long start = System.nanoTime();
+        private final String name;
+        private final boolean readOnly;
+
+        private DurationSynchronization(String name, boolean readOnly) {
+            this.name = name;
+            this.readOnly = readOnly;
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            String outcome = status == STATUS_COMMITTED ? "committed" : status == STATUS_ROLLED_BACK ? "rolled_back" : "unknown";
+            Timer timer = metrics.timer("transaction.duration", "name", name, "outcome", outcome, "read_only", String.valueOf(readOnly));
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.pensarcomodev.transactional.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Timers nomeados com histograma de latência (p50, p95, p99 e buckets de histograma publicados no MeterRegistry).
+ * Os timers são criados uma única vez por nome e tags e reaproveitados, de forma que gravar uma medição em um caminho
+ * quente custa apenas uma consulta ao mapa e a gravação no histograma.
+ */
+@Component
+@RequiredArgsConstructor
+public class Metrics {
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public Timer timer(String name, String... tags) {
+        return timers.computeIfAbsent(key(name, tags), k -> Timer.builder(name)
+                .tags(tags)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    public <T> T record(String name, Supplier<T> operation, String... tags) {
+        return timer(name, tags).record(operation);
+    }
+
+    public void record(String name, Runnable operation, String... tags) {
+        timer(name, tags).record(operation);
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    private static String key(String name, String... tags) {
+        return tags.length == 0 ? name : name + '|' + String.join("|", tags);
+    }
+}
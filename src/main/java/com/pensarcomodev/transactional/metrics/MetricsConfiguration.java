@@ -0,0 +1,23 @@
+package com.pensarcomodev.transactional.metrics;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+
+@Configuration
+@EnableScheduling
+public class MetricsConfiguration {
+
+    @Bean
+    public PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory, Metrics metrics,
+                                                         ObjectProvider<TransactionManagerCustomizers> customizers) {
+        MeteredJpaTransactionManager transactionManager = new MeteredJpaTransactionManager(entityManagerFactory, metrics);
+        customizers.ifAvailable(c -> c.customize(transactionManager));
+        return transactionManager;
+    }
+}
@@ -0,0 +1,100 @@
+package com.pensarcomodev.transactional.metrics;
+
+import com.pensarcomodev.transactional.concurrency.TaskExecutorFactory;
+import com.pensarcomodev.transactional.concurrency.ThreadMode;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import jdk.jfr.EventSettings;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Detecta threads virtuais presas à thread carregadora (pinning), que acontece quando uma thread virtual bloqueia
+ * dentro de um bloco synchronized, como os existentes em partes do driver JDBC e do Hibernate. Enquanto presa, a
+ * thread virtual ocupa uma thread carregadora e deixa de escalar como uma thread virtual.
+ *
+ * Os eventos jdk.VirtualThreadPinned do JFR acima de app.concurrency.pinning-threshold-ms são consumidos com um
+ * RecordingStream (Java 14+, acessado por reflexão pois o projeto compila para Java 11), contados em
+ * virtual_threads.pinned com a tag frame (primeiro frame da aplicação, do driver ou do Hibernate na pilha) e logados.
+ * Só é iniciado com app.concurrency.thread-mode=virtual.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VirtualThreadPinningMonitor {
+
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+    private static final List<String> INTERESTING_PACKAGES = List.of("com.pensarcomodev.", "org.postgresql.", "org.hibernate.", "com.zaxxer.hikari.");
+
+    private final TaskExecutorFactory taskExecutorFactory;
+    private final MeterRegistry registry;
+
+    @Value("${app.concurrency.pinning-threshold-ms:20}")
+    private long thresholdMs;
+
+    private AutoCloseable stream;
+
+    @PostConstruct
+    public void start() {
+        if (taskExecutorFactory.getThreadMode() != ThreadMode.VIRTUAL) {
+            return;
+        }
+        try {
+            Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+            Object recordingStream = streamClass.getConstructor().newInstance();
+            EventSettings settings = (EventSettings) streamClass.getMethod("enable", String.class).invoke(recordingStream, EVENT);
+            settings.withThreshold(Duration.ofMillis(thresholdMs)).withStackTrace();
+            Consumer<RecordedEvent> handler = this::onPinned;
+            streamClass.getMethod("onEvent", String.class, Consumer.class).invoke(recordingStream, EVENT, handler);
+            streamClass.getMethod("startAsync").invoke(recordingStream);
+            stream = (AutoCloseable) recordingStream;
+            log.info("Monitoring virtual thread pinning above {} ms", thresholdMs);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Could not start the virtual thread pinning monitor", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws Exception {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        String frame = frame(event.getStackTrace());
+        registry.counter("virtual_threads.pinned", "frame", frame).increment();
+        log.warn("Virtual thread pinned for {} ms at {}", event.getDuration().toMillis(), frame);
+        if (log.isDebugEnabled() && event.getStackTrace() != null) {
+            event.getStackTrace().getFrames().forEach(f -> log.debug("    at {}", describe(f)));
+        }
+    }
+
+    private static String frame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return "unknown";
+        }
+        return stackTrace.getFrames().stream()
+                .filter(f -> f.getMethod() != null && INTERESTING_PACKAGES.stream().anyMatch(f.getMethod().getType().getName()::startsWith))
+                .findFirst()
+                .map(VirtualThreadPinningMonitor::describe)
+                .orElse(describe(stackTrace.getFrames().get(0)));
+    }
+
+    private static String describe(RecordedFrame frame) {
+        if (frame.getMethod() == null) {
+            return "unknown";
+        }
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+    }
+}
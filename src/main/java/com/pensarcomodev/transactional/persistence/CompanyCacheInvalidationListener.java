@@ -0,0 +1,144 @@
+package com.pensarcomodev.transactional.persistence;
+
+import com.pensarcomodev.transactional.concurrency.TaskExecutors;
+import com.pensarcomodev.transactional.concurrency.ThreadMode;
+import com.pensarcomodev.transactional.entity.Company;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Remove do cache de segundo nível desta instância as empresas alteradas por qualquer escrita no banco, inclusive as
+ * feitas por outras instâncias ou por JDBC sem passar pelo Hibernate. As notificações do canal company_changed são
+ * enviadas pelas triggers da migração V5 após o commit de cada update ou delete, nas sessões com app.cache_notify = on
+ * (ligado nas conexões da aplicação pelo perfil cache).
+ *
+ * O LISTEN usa uma conexão dedicada fora dos pools, pois fica aberta por toda a vida da aplicação. Notificações
+ * enviadas enquanto a conexão está caída são perdidas, por isso toda a região é removida a cada reconexão.
+ * Só é iniciado com o cache de segundo nível habilitado (perfil cache).
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "spring.jpa.properties.hibernate.cache.use_second_level_cache", havingValue = "true")
+public class CompanyCacheInvalidationListener {
+
+    public static final String CHANNEL = "company_changed";
+    public static final String EVICT_ALL = "*";
+
+    private final DataSource dataSource;
+    private final Cache cache;
+    private final MeterRegistry registry;
+    private final int pollTimeoutMs;
+    private final long reconnectDelayMs;
+    private volatile boolean running;
+    private volatile Connection connection;
+    private Thread thread;
+
+    public CompanyCacheInvalidationListener(DataSourceProperties properties, EntityManagerFactory entityManagerFactory, MeterRegistry registry,
+                                            @Value("${app.cache.company.invalidation.poll-timeout-ms:500}") int pollTimeoutMs,
+                                            @Value("${app.cache.company.invalidation.reconnect-delay-ms:1000}") long reconnectDelayMs) {
+        this.dataSource = properties.initializeDataSourceBuilder().type(SimpleDriverDataSource.class).build();
+        this.cache = entityManagerFactory.getCache();
+        this.registry = registry;
+        this.pollTimeoutMs = pollTimeoutMs;
+        this.reconnectDelayMs = reconnectDelayMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        thread = TaskExecutors.newThread(ThreadMode.PLATFORM, "company-cache-invalidation", this::listen);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        closeQuietly(connection);
+        thread.join(pollTimeoutMs * 2L);
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection listening = dataSource.getConnection()) {
+                connection = listening;
+                try (Statement statement = listening.createStatement()) {
+                    statement.execute("listen " + CHANNEL);
+                }
+                // Escritas feitas enquanto não havia LISTEN não foram notificadas
+                evictAll("reconnect");
+                log.info("Listening to {} for company cache invalidation", CHANNEL);
+                PGConnection pgConnection = listening.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(pollTimeoutMs);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            onNotification(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Company cache invalidation connection lost, reconnecting in {} ms", reconnectDelayMs, e);
+                sleep(reconnectDelayMs);
+            }
+        }
+    }
+
+    void onNotification(String payload) {
+        if (EVICT_ALL.equals(payload)) {
+            evictAll("notification");
+            return;
+        }
+        int evicted = 0;
+        for (String id : payload.split(",")) {
+            cache.evict(Company.class, Long.valueOf(id));
+            evicted++;
+        }
+        registry.counter("hibernate.second_level_cache.invalidations", "region", Company.CACHE_REGION, "scope", "entity").increment(evicted);
+        log.debug("Evicted {} companies from the second level cache", evicted);
+    }
+
+    private void evictAll(String reason) {
+        cache.evict(Company.class);
+        registry.counter("hibernate.second_level_cache.invalidations", "region", Company.CACHE_REGION, "scope", "region").increment();
+        log.debug("Evicted every company from the second level cache on {}", reason);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Error closing the listening connection", e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.pensarcomodev.transactional.persistence;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limita o número de entidades gerenciadas pelo entityManager durante a execução do método anotado.
+ *
+ * A verificação é feita antes de cada chamada a um repositório do Spring Data, que é um ponto seguro para limpar o
+ * contexto de persistência: as entidades retornadas pela chamada anterior já foram usadas pelo chamador e qualquer
+ * alteração nelas é enviada ao banco pelo flush antes do clear. Entidades guardadas pelo chamador após o clear ficam
+ * desanexadas e alterações feitas nelas não são mais persistidas. Leituras que não passam por um repositório, como as
+ * páginas de um KeysetCursor, acionam a verificação com PersistenceContextGuardAspect.checkpoint.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface PersistenceContextGuard {
+
+    int maxManagedEntities() default 10000;
+
+    Action action() default Action.FLUSH_AND_CLEAR;
+
+    enum Action {
+        /** Faz flush e clear do entityManager e continua a execução */
+        FLUSH_AND_CLEAR,
+        /** Lança PersistenceContextOverflowException */
+        FAIL
+    }
+}
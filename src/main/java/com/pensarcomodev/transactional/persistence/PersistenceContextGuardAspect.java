@@ -0,0 +1,93 @@
+package com.pensarcomodev.transactional.persistence;
+
+import com.pensarcomodev.transactional.exception.PersistenceContextOverflowException;
+import com.pensarcomodev.transactional.util.HibernateUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.hibernate.Session;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+@Slf4j
+@Aspect
+@Component
+@RequiredArgsConstructor
+public class PersistenceContextGuardAspect {
+
+    // Sem valor inicial: a grande maioria das chamadas a repositórios acontece fora de um método com guard e não deve
+    // criar uma pilha vazia em cada thread
+    private static final ThreadLocal<Deque<ActiveGuard>> GUARDS = new ThreadLocal<>();
+
+    private final EntityManager entityManager;
+    private final MeterRegistry registry;
+
+    @Around("@annotation(guard)")
+    public Object guard(ProceedingJoinPoint joinPoint, PersistenceContextGuard guard) throws Throwable {
+        Deque<ActiveGuard> guards = GUARDS.get();
+        if (guards == null) {
+            guards = new ArrayDeque<>();
+            GUARDS.set(guards);
+        }
+        guards.push(new ActiveGuard(guard, joinPoint.getSignature().toShortString()));
+        try {
+            return joinPoint.proceed();
+        } finally {
+            guards.pop();
+            if (guards.isEmpty()) {
+                GUARDS.remove();
+            }
+        }
+    }
+
+    @Before("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public void beforeRepositoryCall(JoinPoint joinPoint) {
+        checkpoint(joinPoint.getSignature().toShortString());
+    }
+
+    /**
+     * Aplica o guard ativo na thread antes de uma leitura que não passa por um repositório, como as páginas de um
+     * KeysetCursor. Sem guard ativo ou fora de uma transação não faz nada.
+     */
+    public void checkpoint(String operation) {
+        Deque<ActiveGuard> guards = GUARDS.get();
+        ActiveGuard active = guards == null ? null : guards.peek();
+        if (active == null || !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return;
+        }
+        int managed = HibernateUtils.getNumberOfManagedEntities(entityManager.unwrap(Session.class));
+        int max = active.guard.maxManagedEntities();
+        if (managed <= max) {
+            return;
+        }
+        registry.counter("persistence_context.guard", "method", active.method, "action", active.guard.action().name().toLowerCase())
+                .increment();
+        if (active.guard.action() == PersistenceContextGuard.Action.FAIL) {
+            throw new PersistenceContextOverflowException(active.method, managed, max);
+        }
+        log.info("{} entities managed in {}, above the limit of {}, flushing and clearing before {}",
+                managed, active.method, max, operation);
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    private static class ActiveGuard {
+
+        private final PersistenceContextGuard guard;
+        private final String method;
+
+        private ActiveGuard(PersistenceContextGuard guard, String method) {
+            this.guard = guard;
+            this.method = method;
+        }
+    }
+}
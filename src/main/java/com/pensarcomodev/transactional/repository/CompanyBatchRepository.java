@@ -1,6 +1,8 @@
 package com.pensarcomodev.transactional.repository;
 
 import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.metrics.Metrics;
+import com.pensarcomodev.transactional.util.TimeMetric;
 import lombok.RequiredArgsConstructor;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
@@ -13,16 +15,26 @@ import java.util.List;
 @RequiredArgsConstructor
 public class CompanyBatchRepository {
 
+    private static final int DEFAULT_BATCH_SIZE = 50;
+
     private final JdbcTemplate jdbcTemplate;
+    private final Metrics metrics;
 
     @Transactional
     public void saveAll(List<Company> companies) {
+        saveAll(companies, DEFAULT_BATCH_SIZE);
+    }
+
+    @Transactional
+    public void saveAll(List<Company> companies, int batchSize) {
+        TimeMetric timeMetric = new TimeMetric();
         jdbcTemplate.batchUpdate("insert into company (document) " +
                         "VALUES (?)",
                 companies,
-                50,
+                batchSize,
                 (PreparedStatement ps, Company company) -> {
                     ps.setString(1, company.getDocument());
                 });
+        timeMetric.record(metrics.timer("jdbc.batch.save_all", "table", "company"));
     }
 }
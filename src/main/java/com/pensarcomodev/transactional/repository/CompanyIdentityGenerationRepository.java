@@ -0,0 +1,9 @@
+package com.pensarcomodev.transactional.repository;
+
+import com.pensarcomodev.transactional.entity.CompanyIdentityGeneration;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface CompanyIdentityGenerationRepository extends JpaRepository<CompanyIdentityGeneration, Long> {
+}
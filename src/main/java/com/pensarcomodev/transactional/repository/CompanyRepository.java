@@ -1,16 +1,20 @@
 package com.pensarcomodev.transactional.repository;
 
 import com.pensarcomodev.transactional.entity.Company;
+import org.hibernate.LockOptions;
+import org.hibernate.cfg.AvailableSettings;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -25,9 +29,28 @@ public interface CompanyRepository extends JpaRepository<Company, Long> {
     @Query("select c from Company c where id = :id")
     Company findByIdPessimisticRead(@Param("id") Long id);
 
+    Company findByDocument(String document);
+
+    /**
+     * Trava e retorna as próximas empresas que ainda têm funcionários, pulando as que já estão travadas por outra
+     * transação (FOR UPDATE SKIP LOCKED). Consumidores paralelos recebem lotes disjuntos sem esperar uns pelos outros.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = AvailableSettings.JPA_LOCK_TIMEOUT, value = "" + LockOptions.SKIP_LOCKED))
+    @Query("select c from Company c where exists (select e.id from Employee e where e.company = c) order by c.id")
+    List<Company> claimWithEmployees(Pageable limitPage);
+
     @Query("select c from Company c")
     Stream<Company> findAllWithStream();
 
+    /**
+     * As entidades retornadas são carregadas como somente leitura mesmo em uma transação comum: não guardam o estado
+     * carregado e são ignoradas pelo dirty checking no flush.
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.READ_ONLY, value = "true"))
+    @Query("select c from Company c")
+    List<Company> findAllReadOnly();
+
     @Transactional
     default List<Company> saveAllTransaction(List<Company> companyList) {
         return saveAll(companyList);
@@ -0,0 +1,9 @@
+package com.pensarcomodev.transactional.repository;
+
+import com.pensarcomodev.transactional.entity.CompanyVersioned;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface CompanyVersionedRepository extends JpaRepository<CompanyVersioned, Long> {
+}
@@ -0,0 +1,143 @@
+package com.pensarcomodev.transactional.repository;
+
+import com.pensarcomodev.transactional.dto.EmployeeSummary;
+import com.pensarcomodev.transactional.entity.Employee;
+import com.pensarcomodev.transactional.metrics.Metrics;
+import com.pensarcomodev.transactional.util.TimeMetric;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+
+@Repository
+@RequiredArgsConstructor
+public class EmployeeBatchRepository {
+
+    /**
+     * O PostgreSQL aceita no máximo 65535 parâmetros por comando, com 4 parâmetros por linha.
+     */
+    public static final int MAX_ROWS_PER_INSERT = 65535 / 4;
+
+    private static final RowMapper<EmployeeSummary> SUMMARY_MAPPER = (rs, i) -> new EmployeeSummary(
+            rs.getLong("id"),
+            rs.getString("document"),
+            rs.getBigDecimal("salary"),
+            rs.getObject("company_id", Long.class));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Metrics metrics;
+
+    /**
+     * Mesmo resultado de EmployeeRepository.findSummariesByCompany, sem passar pelo Hibernate: sem tradução da JPQL,
+     * sem hidratação de resultados e sem sessão, apenas o ResultSet mapeado direto para o DTO.
+     */
+    public List<EmployeeSummary> findSummariesByCompany(Long companyId) {
+        return jdbcTemplate.query("select id, document, salary, company_id from employee where company_id = ? order by id",
+                SUMMARY_MAPPER,
+                companyId);
+    }
+
+    public List<String> findDocumentsByCompany(Long companyId) {
+        return jdbcTemplate.queryForList("select document from employee where company_id = ? order by id",
+                String.class,
+                companyId);
+    }
+
+    /**
+     * Insere os funcionários em comandos INSERT ... VALUES (...), (...) de até rowsPerStatement linhas. Uma empresa
+     * inteira é inserida em poucas idas ao banco em vez de uma por funcionário. A empresa de cada funcionário já deve
+     * estar persistida.
+     *
+     * Os ids são reservados antes, em uma única consulta à sequence, e atribuídos às entidades. As entidades não passam
+     * a ser gerenciadas pelo EntityManager.
+     */
+    public void insertAll(List<Employee> employees, int rowsPerStatement) {
+        if (rowsPerStatement < 1 || rowsPerStatement > MAX_ROWS_PER_INSERT) {
+            throw new IllegalArgumentException("rowsPerStatement must be between 1 and " + MAX_ROWS_PER_INSERT);
+        }
+        if (employees.isEmpty()) {
+            return;
+        }
+        Iterator<Long> ids = reserveIds(employees.size()).iterator();
+        employees.forEach(employee -> employee.setId(ids.next()));
+        Timer flushTimer = metrics.timer("jdbc.batch.flush", "table", "employee");
+        for (int from = 0; from < employees.size(); from += rowsPerStatement) {
+            TimeMetric timeMetric = new TimeMetric();
+            insertChunk(employees.subList(from, Math.min(from + rowsPerStatement, employees.size())));
+            timeMetric.record(flushTimer);
+        }
+    }
+
+    /**
+     * Reserva os ids da mesma forma que o otimizador pooled-lo do Hibernate: cada nextval de employee_seq devolve o
+     * início de um bloco exclusivo de Employee.ID_ALLOCATION_SIZE ids. O default da coluna chamaria nextval a cada linha
+     * e descartaria o restante de cada bloco.
+     */
+    private List<Long> reserveIds(int count) {
+        int blocks = (count + Employee.ID_ALLOCATION_SIZE - 1) / Employee.ID_ALLOCATION_SIZE;
+        List<Long> blockStarts = jdbcTemplate.queryForList("select nextval('employee_seq') from generate_series(1, ?)",
+                Long.class,
+                blocks);
+        List<Long> ids = new ArrayList<>(count);
+        for (Long blockStart : blockStarts) {
+            for (int i = 0; i < Employee.ID_ALLOCATION_SIZE && ids.size() < count; i++) {
+                ids.add(blockStart + i);
+            }
+        }
+        return ids;
+    }
+
+    private void insertChunk(List<Employee> chunk) {
+        List<Object> args = new ArrayList<>(chunk.size() * 4);
+        for (Employee employee : chunk) {
+            args.add(employee.getId());
+            args.add(employee.getDocument());
+            args.add(employee.getSalary());
+            args.add(employee.getCompany() != null ? employee.getCompany().getId() : null);
+        }
+        String values = String.join(", ", Collections.nCopies(chunk.size(), "(?, ?, ?, ?)"));
+        jdbcTemplate.update("insert into employee (id, document, salary, company_id) values " + values, args.toArray());
+    }
+
+    /**
+     * Remove até limit funcionários da empresa em um único comando, retornando os documentos removidos.
+     */
+    public List<String> deleteByCompany(Long companyId, int limit) {
+        return jdbcTemplate.queryForList("delete from employee where id in " +
+                        "(select id from employee where company_id = ? order by id limit ?) " +
+                        "returning document",
+                String.class,
+                companyId,
+                limit);
+    }
+
+    /**
+     * Soma a cada salário o valor correspondente em um único UPDATE ... FROM (VALUES ...), retornando os ids que
+     * foram de fato atualizados. Ids ausentes do retorno não existem mais na tabela.
+     */
+    public List<Long> increaseSalaries(SortedMap<Long, BigDecimal> increases) {
+        if (increases.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Object> args = new ArrayList<>(increases.size() * 2);
+        increases.forEach((id, increase) -> {
+            args.add(id);
+            args.add(increase);
+        });
+        String values = String.join(", ", Collections.nCopies(increases.size(), "(?::bigint, ?::numeric)"));
+        return jdbcTemplate.queryForList("update employee e set salary = e.salary + v.increase " +
+                        "from (values " + values + ") as v(id, increase) " +
+                        "where e.id = v.id " +
+                        "returning e.id",
+                Long.class,
+                args.toArray());
+    }
+}
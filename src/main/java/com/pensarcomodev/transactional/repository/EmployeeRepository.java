@@ -1,7 +1,10 @@
 package com.pensarcomodev.transactional.repository;
 
+import com.pensarcomodev.transactional.dto.EmployeeDocument;
+import com.pensarcomodev.transactional.dto.EmployeeSummary;
 import com.pensarcomodev.transactional.entity.Company;
 import com.pensarcomodev.transactional.entity.Employee;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -21,9 +24,37 @@ public interface EmployeeRepository extends JpaRepository<Employee, Long> {
 
     @Modifying
     @Query(value = "update Employee set salary = salary + :increase where id = :id")
-    void increaseSalary(@Param("id") Long id, @Param("increase") BigDecimal increase);
+    int increaseSalary(@Param("id") Long id, @Param("increase") BigDecimal increase);
 
     @Query(value = "select e from Employee e where company = :company")
     List<Employee> findByCompany(@Param("company") Company company);
 
+    @EntityGraph(Employee.WITH_COMPANY)
+    @Query(value = "select e from Employee e where company = :company")
+    List<Employee> findWithCompanyByCompany(@Param("company") Company company);
+
+    @EntityGraph(Employee.WITH_COMPANY)
+    @Query(value = "select e from Employee e")
+    List<Employee> findAllWithCompany();
+
+    /**
+     * Apenas id e documento, sem criar entidades gerenciadas.
+     */
+    @Query(value = "select e.id as id, e.document as document from Employee e where e.company = :company order by e.id")
+    List<EmployeeDocument> findDocumentsByCompany(@Param("company") Company company);
+
+    /**
+     * DTO montado pelo construtor, sem entidades nem snapshots no contexto de persistência. e.company.id é lido da
+     * coluna company_id, sem join.
+     */
+    @Query(value = "select new com.pensarcomodev.transactional.dto.EmployeeSummary(e.id, e.document, e.salary, e.company.id) " +
+            "from Employee e where e.company = :company order by e.id")
+    List<EmployeeSummary> findSummariesByCompany(@Param("company") Company company);
+
+    @Query(value = "select e.document from Employee e where e.company = :company order by e.id")
+    List<String> listDocumentsByCompany(@Param("company") Company company);
+
+    @Query(value = "select e.id from Employee e order by e.id")
+    List<Long> listIds();
+
 }
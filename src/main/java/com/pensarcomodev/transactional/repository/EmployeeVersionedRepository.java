@@ -0,0 +1,9 @@
+package com.pensarcomodev.transactional.repository;
+
+import com.pensarcomodev.transactional.entity.EmployeeVersioned;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface EmployeeVersionedRepository extends JpaRepository<EmployeeVersioned, Long> {
+}
@@ -0,0 +1,256 @@
+package com.pensarcomodev.transactional.repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Paginação via índice (keyset) genérica para qualquer entidade.
+ *
+ * Cada página é obtida com a condição de corte sobre a chave da última entidade da página anterior, ordenando pela
+ * mesma chave, de forma que o banco usa o índice para encontrar o início de cada página e o custo de cada consulta é
+ * constante ao longo de toda a tabela. A chave pode ser composta, como (company.id, id) em Employee, e deve ser única e
+ * coberta por um índice na mesma ordem.
+ *
+ * Por padrão o entityManager é limpo antes da leitura de cada nova página, liberando as entidades da página anterior.
+ * A posição do cursor pode ser salva com getContinuationToken() e retomada depois com resumeFrom(). Cada instância
+ * mantém sua posição e não deve ser compartilhada entre threads.
+ */
+public class KeysetCursor<T> implements Iterable<List<T>> {
+
+    private static final String ALIAS = "e";
+
+    private final EntityManager entityManager;
+    private final Class<T> entityClass;
+    private final List<Key<T, ?>> keys = new ArrayList<>();
+    private int pageSize = 1000;
+    private boolean clearAfterPage = true;
+    private Runnable beforePage = () -> { };
+    private Object[] lastKey;
+
+    private KeysetCursor(EntityManager entityManager, Class<T> entityClass) {
+        this.entityManager = entityManager;
+        this.entityClass = entityClass;
+    }
+
+    public static <T> KeysetCursor<T> of(EntityManager entityManager, Class<T> entityClass) {
+        return new KeysetCursor<>(entityManager, entityClass);
+    }
+
+    /**
+     * Adiciona uma propriedade à chave de ordenação, na ordem de significância.
+     *
+     * @param path caminho JPQL da propriedade a partir da entidade, como "id" ou "company.id"
+     * @param type tipo da propriedade, usado para interpretar o token de continuação
+     * @param extractor obtém o valor da propriedade a partir de uma entidade lida
+     */
+    public <K extends Comparable<? super K>> KeysetCursor<T> key(String path, Class<K> type, Function<T, K> extractor) {
+        keys.add(new Key<>(path, type, extractor));
+        return this;
+    }
+
+    public KeysetCursor<T> pageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    public KeysetCursor<T> clearAfterPage(boolean clearAfterPage) {
+        this.clearAfterPage = clearAfterPage;
+        return this;
+    }
+
+    /**
+     * Executado antes da leitura de cada página, depois da limpeza do entityManager.
+     */
+    public KeysetCursor<T> beforePage(Runnable beforePage) {
+        this.beforePage = beforePage;
+        return this;
+    }
+
+    public KeysetCursor<T> resumeFrom(String continuationToken) {
+        checkKeys();
+        if (continuationToken == null) {
+            this.lastKey = null;
+            return this;
+        }
+        String[] parts = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8).split("\\.", -1);
+        if (parts.length != keys.size()) {
+            throw new IllegalArgumentException("Continuation token does not match the cursor key");
+        }
+        Object[] key = new Object[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String value = new String(Base64.getUrlDecoder().decode(parts[i]), StandardCharsets.UTF_8);
+            key[i] = parse(value, keys.get(i).type);
+        }
+        this.lastKey = key;
+        return this;
+    }
+
+    /**
+     * Token opaco com a chave da última entidade entregue, ou null se nenhuma página foi lida.
+     */
+    public String getContinuationToken() {
+        if (lastKey == null) {
+            return null;
+        }
+        String joined = Stream.of(lastKey)
+                .map(value -> Base64.getUrlEncoder().withoutPadding().encodeToString(value.toString().getBytes(StandardCharsets.UTF_8)))
+                .collect(Collectors.joining("."));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(joined.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public Iterator<List<T>> iterator() {
+        checkKeys();
+        return new PageIterator();
+    }
+
+    @Override
+    public Spliterator<List<T>> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    public Stream<List<T>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    private List<T> fetchPage() {
+        TypedQuery<T> query = entityManager.createQuery(buildQuery(), entityClass);
+        if (lastKey != null) {
+            for (int i = 0; i < keys.size(); i++) {
+                query.setParameter("k" + i, lastKey[i]);
+            }
+        }
+        return query.setMaxResults(pageSize).getResultList();
+    }
+
+    private String buildQuery() {
+        String entityName = entityManager.getMetamodel().entity(entityClass).getName();
+        StringBuilder jpql = new StringBuilder("select ").append(ALIAS).append(" from ").append(entityName).append(' ').append(ALIAS);
+        if (lastKey != null) {
+            // k0 >= :k0 and ((k0 > :k0) or (k0 = :k0 and k1 > :k1) or ...)
+            // O PostgreSQL não transforma o OR em um intervalo do índice, a condição inicial sobre a primeira chave é
+            // que limita a leitura do índice ao início da página
+            List<String> conditions = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                StringBuilder condition = new StringBuilder("(");
+                for (int j = 0; j < i; j++) {
+                    condition.append(path(j)).append(" = :k").append(j).append(" and ");
+                }
+                condition.append(path(i)).append(" > :k").append(i).append(')');
+                conditions.add(condition.toString());
+            }
+            jpql.append(" where ");
+            if (keys.size() > 1) {
+                jpql.append(path(0)).append(" >= :k0 and (").append(String.join(" or ", conditions)).append(')');
+            } else {
+                jpql.append(conditions.get(0));
+            }
+        }
+        jpql.append(" order by ");
+        for (int i = 0; i < keys.size(); i++) {
+            jpql.append(i == 0 ? "" : ", ").append(path(i));
+        }
+        return jpql.toString();
+    }
+
+    private String path(int index) {
+        return ALIAS + "." + keys.get(index).path;
+    }
+
+    private Object[] keyOf(T entity) {
+        Object[] key = new Object[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            key[i] = keys.get(i).extractor.apply(entity);
+            if (key[i] == null) {
+                throw new IllegalStateException("Key " + keys.get(i).path + " is null for " + entity);
+            }
+        }
+        return key;
+    }
+
+    private void checkKeys() {
+        if (keys.isEmpty()) {
+            throw new IllegalStateException("At least one key must be defined");
+        }
+    }
+
+    private static Object parse(String value, Class<?> type) {
+        if (type == Long.class) {
+            return Long.valueOf(value);
+        }
+        if (type == Integer.class) {
+            return Integer.valueOf(value);
+        }
+        if (type == String.class) {
+            return value;
+        }
+        if (type == BigDecimal.class) {
+            return new BigDecimal(value);
+        }
+        throw new IllegalArgumentException("Unsupported key type " + type.getName());
+    }
+
+    private static class Key<T, K> {
+
+        private final String path;
+        private final Class<K> type;
+        private final Function<T, K> extractor;
+
+        private Key(String path, Class<K> type, Function<T, K> extractor) {
+            this.path = path;
+            this.type = type;
+            this.extractor = extractor;
+        }
+    }
+
+    private class PageIterator implements Iterator<List<T>> {
+
+        private List<T> next;
+        private boolean lastPage = false;
+        private int pagesRead = 0;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                if (lastPage) {
+                    return false;
+                }
+                if (clearAfterPage && pagesRead > 0) {
+                    entityManager.clear();
+                }
+                beforePage.run();
+                next = fetchPage();
+                lastPage = next.size() < pageSize;
+            }
+            return !next.isEmpty();
+        }
+
+        @Override
+        public List<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<T> page = next;
+            next = null;
+            pagesRead++;
+            lastKey = keyOf(page.get(page.size() - 1));
+            return page;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.pensarcomodev.transactional.service;
+
+import com.pensarcomodev.transactional.config.DataSourceConfiguration;
+import com.pensarcomodev.transactional.dto.CompanyEmployeesDto;
+import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.entity.Employee;
+import com.pensarcomodev.transactional.metrics.Metrics;
+import com.pensarcomodev.transactional.util.TimeMetric;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Monta CompanyEmployeesDto a partir de uma única leitura de company left join employee ordenada por (company.id,
+ * employee.id), que o PostgreSQL resolve com um merge join entre a chave primária de company e o índice
+ * employee_company_id_id_idx, sem ordenação. As linhas consecutivas de cada empresa são agrupadas à medida que o
+ * cursor avança, portanto a memória usada é limitada pela maior empresa e não pelo total de registros.
+ *
+ * Os objetos são montados diretamente do ResultSet e não são gerenciados pelo EntityManager. A conexão vem do pool
+ * bulkDataSource e fica presa até o fechamento do stream, que deve ser feito pelo chamador.
+ */
+@Slf4j
+@Service
+public class CompanyEmployeesService {
+
+    private static final String SELECT = "select c.id as company_id, c.document as company_document, c.name as company_name, " +
+            "e.id as employee_id, e.document as employee_document, e.salary as employee_salary " +
+            "from company c left join employee e on e.company_id = c.id ";
+    private static final String ORDER_BY = " order by c.id, e.id";
+
+    private final DataSource dataSource;
+    private final Metrics metrics;
+    private final int fetchSize;
+
+    public CompanyEmployeesService(@Qualifier(DataSourceConfiguration.BULK_DATA_SOURCE) DataSource dataSource,
+                                   Metrics metrics,
+                                   @Value("${app.company-employees.fetch-size:1000}") int fetchSize) {
+        this.dataSource = dataSource;
+        this.metrics = metrics;
+        this.fetchSize = fetchSize;
+    }
+
+    public Optional<CompanyEmployeesDto> find(Long companyId) {
+        try (Stream<CompanyEmployeesDto> stream = stream(List.of(companyId))) {
+            return stream.findFirst();
+        }
+    }
+
+    /**
+     * Empresas sem funcionários são retornadas com a lista vazia, ids inexistentes são ignorados.
+     */
+    public Stream<CompanyEmployeesDto> stream(Collection<Long> companyIds) {
+        return query(SELECT + "where c.id = any(?)" + ORDER_BY, companyIds.toArray(new Long[0]));
+    }
+
+    public Stream<CompanyEmployeesDto> streamAll() {
+        return query(SELECT + ORDER_BY, null);
+    }
+
+    private Stream<CompanyEmployeesDto> query(String sql, Long[] companyIds) {
+        TimeMetric timeMetric = new TimeMetric();
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet rs;
+        try {
+            connection = dataSource.getConnection();
+            // O driver do PostgreSQL só respeita o fetchSize com autocommit desligado
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            statement = connection.prepareStatement(sql);
+            statement.setFetchSize(fetchSize);
+            if (companyIds != null) {
+                statement.setArray(1, connection.createArrayOf("bigint", companyIds));
+            }
+            rs = statement.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            close(connection, statement);
+            throw new IllegalStateException("Could not read companies with employees", e);
+        }
+        Connection openConnection = connection;
+        PreparedStatement openStatement = statement;
+        GroupingSpliterator spliterator = new GroupingSpliterator(rs);
+        return StreamSupport.stream(spliterator, false)
+                .onClose(() -> {
+                    close(openConnection, openStatement);
+                    timeMetric.record(metrics.timer("company_employees.read"));
+                    log.debug("Read {} companies with {} employees in {} ms",
+                            spliterator.companies, spliterator.employees, timeMetric.getDuration());
+                });
+    }
+
+    private static void close(Connection connection, PreparedStatement statement) {
+        try {
+            if (statement != null) {
+                statement.close();
+            }
+            if (connection != null) {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            log.warn("Error closing company employees cursor", e);
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.warn("Error releasing connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cada avanço consome as linhas de uma empresa e para na primeira linha da próxima, que fica posicionada no
+     * ResultSet para o avanço seguinte.
+     */
+    private static class GroupingSpliterator extends Spliterators.AbstractSpliterator<CompanyEmployeesDto> {
+
+        private final ResultSet rs;
+        private boolean started;
+        private boolean hasRow;
+        private long companies;
+        private long employees;
+
+        private GroupingSpliterator(ResultSet rs) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT);
+            this.rs = rs;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super CompanyEmployeesDto> action) {
+            try {
+                if (!started) {
+                    started = true;
+                    hasRow = rs.next();
+                }
+                if (!hasRow) {
+                    return false;
+                }
+                Company company = Company.builder()
+                        .id(rs.getLong("company_id"))
+                        .document(rs.getString("company_document"))
+                        .name(rs.getString("company_name"))
+                        .build();
+                List<Employee> companyEmployees = new ArrayList<>();
+                do {
+                    Long employeeId = rs.getObject("employee_id", Long.class);
+                    if (employeeId != null) {
+                        companyEmployees.add(Employee.builder()
+                                .id(employeeId)
+                                .document(rs.getString("employee_document"))
+                                .salary(rs.getBigDecimal("employee_salary"))
+                                .company(company)
+                                .build());
+                    }
+                    hasRow = rs.next();
+                } while (hasRow && rs.getLong("company_id") == company.getId());
+                companies++;
+                employees += companyEmployees.size();
+                action.accept(new CompanyEmployeesDto(company, companyEmployees));
+                return true;
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not read companies with employees", e);
+            }
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.pensarcomodev.transactional.service;
 
 import com.pensarcomodev.transactional.entity.Company;
-import com.pensarcomodev.transactional.entity.Employee;
 import com.pensarcomodev.transactional.repository.CompanyRepository;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
@@ -11,6 +10,7 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
@@ -27,6 +27,9 @@ public class CompanyService {
     @Autowired
     private EntityManager entityManager;
 
+    @Autowired
+    private RetryingTransactionExecutor retryingTransactionExecutor;
+
     public Company save(Company entity) {
         return companyRepository.save(entity);
     }
@@ -46,19 +49,19 @@ public class CompanyService {
     public void fireEveryone(Long companyId, CountDownLatch countDownLatch, List<String> firedDocuments) {
         countDownLatch.await();
         Company company = companyRepository.findById(companyId).orElseThrow();
-        List<Employee> employees = employeeService.findByCompany(company);
-        employees.stream().map(Employee::getDocument).forEach(firedDocuments::add);
-        employeeService.deleteAll(employees);
+        employeeService.deleteAll(company, firedDocuments::add);
     }
 
+    /**
+     * Mesmo que fireEveryone, com lotes de chunkSize registros, de forma que as transações concorrentes disputam as
+     * linhas ao longo de vários comandos DELETE em vez de um só.
+     */
     @Transactional
     @SneakyThrows
-    public void fireEveryoneBatch(Long companyId, CountDownLatch countDownLatch, List<String> firedDocuments) {
+    public void fireEveryoneBatch(Long companyId, int chunkSize, CountDownLatch countDownLatch, List<String> firedDocuments) {
         countDownLatch.await();
         Company company = companyRepository.findById(companyId).orElseThrow();
-        List<Employee> employees = employeeService.findByCompany(company);
-        employees.stream().map(Employee::getDocument).forEach(firedDocuments::add);
-        employeeService.deleteAllBatch(employees);
+        employeeService.deleteAll(company, chunkSize, firedDocuments::add);
     }
 
     @Transactional
@@ -66,9 +69,7 @@ public class CompanyService {
     public void fireEveryonePessimisticWrite(Long companyId, CountDownLatch countDownLatch, List<String> firedDocuments) {
         countDownLatch.await();
         Company company = companyRepository.findByIdPessimisticWrite(companyId);
-        List<Employee> employees = employeeService.findByCompany(company);
-        employees.stream().map(Employee::getDocument).forEach(firedDocuments::add);
-        employeeService.deleteAll(employees);
+        employeeService.deleteAll(company, firedDocuments::add);
     }
 
     @Transactional
@@ -76,9 +77,22 @@ public class CompanyService {
     public void fireEveryonePessimisticRead(Long companyId, CountDownLatch countDownLatch, List<String> firedDocuments) {
         countDownLatch.await();
         Company company = companyRepository.findByIdPessimisticRead(companyId);
-        List<Employee> employees = employeeService.findByCompany(company);
-        employees.stream().map(Employee::getDocument).forEach(firedDocuments::add);
-        employeeService.deleteAll(employees);
+        employeeService.deleteAll(company, firedDocuments::add);
+    }
+
+    /**
+     * Mesmo que fireEveryonePessimisticWrite, mas em vez de esperar o lock da empresa indefinidamente a transação
+     * desiste após o lock_timeout e é repetida pelo RetryingTransactionExecutor, assim como em caso de deadlock.
+     * Os documentos só são entregues ao chamador após o commit, para que uma tentativa desfeita não os duplique.
+     */
+    public void fireEveryonePessimisticWriteWithRetry(Long companyId, List<String> firedDocuments) {
+        List<String> fired = retryingTransactionExecutor.execute("CompanyService.fireEveryonePessimisticWriteWithRetry", () -> {
+            Company company = companyRepository.findByIdPessimisticWrite(companyId);
+            List<String> attemptFired = new ArrayList<>();
+            employeeService.deleteAll(company, attemptFired::add);
+            return attemptFired;
+        });
+        firedDocuments.addAll(fired);
     }
 
     public Company saveAndFlush(Company company) {
@@ -0,0 +1,377 @@
+package com.pensarcomodev.transactional.service;
+
+import com.pensarcomodev.transactional.concurrency.TaskExecutorFactory;
+import com.pensarcomodev.transactional.dto.StressResult;
+import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.entity.Employee;
+import com.pensarcomodev.transactional.metrics.Metrics;
+import com.pensarcomodev.transactional.repository.BulkCopyRepository;
+import com.pensarcomodev.transactional.repository.CompanyRepository;
+import com.pensarcomodev.transactional.repository.EmployeeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Gerador de carga concorrente para comparar níveis de isolamento pelo custo medido.
+ *
+ * As threads são de plataforma ou virtuais conforme app.concurrency.thread-mode; com threads virtuais, threads pode
+ * ser bem maior que o pool de conexões e as operações simultâneas são limitadas ao tamanho do pool.
+ *
+ * Para cada nível de isolamento recria um conjunto de empresas e funcionários próprio (documentos com prefixo STRESS-),
+ * executa durante a duração configurada uma mistura aleatória de operações a partir de várias threads, cada operação em
+ * uma transação pelo RetryingTransactionExecutor, e ao final verifica os invariantes:
+ *
+ * Salário: cada funcionário restante deve ter o salário inicial somado a todos os aumentos comitados para ele. Com
+ * READ_MODIFY_WRITE_SALARY em READ_COMMITTED aumentos concorrentes se sobrescrevem (lost update); em REPEATABLE_READ e
+ * SERIALIZABLE o conflito vira uma falha de serialização e a transação é repetida.
+ * Órfãos: funcionários apontando para empresas inexistentes.
+ * Leituras não repetíveis: a soma dos salários de uma empresa lida duas vezes na mesma transação muda entre as leituras.
+ *
+ * Os funcionários disputados pelas operações de salário são distribuídos entre a primeira metade das empresas, e
+ * FIRE_EVERYONE só demite nas demais. Assim as demissões não esvaziam o conjunto disputado no meio da execução, o que
+ * deixaria de medir os lost updates, e as leituras de qualquer uma das empresas disputadas concorrem com os aumentos.
+ */
+@Slf4j
+@Service
+public class ConcurrencyStressRunner {
+
+    private static final String PREFIX = "STRESS-";
+    private static final BigDecimal INITIAL_SALARY = BigDecimal.valueOf(5000);
+
+    @Autowired
+    private RetryingTransactionExecutor retryingTransactionExecutor;
+
+    @Autowired
+    private CompanyRepository companyRepository;
+
+    @Autowired
+    private EmployeeRepository employeeRepository;
+
+    @Autowired
+    private EmployeeService employeeService;
+
+    @Autowired
+    private BulkCopyRepository bulkCopyRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private Metrics metrics;
+
+    @Autowired
+    private TaskExecutorFactory taskExecutorFactory;
+
+    public enum Operation {
+        /** UPDATE atômico salary = salary + x */
+        INCREASE_SALARY,
+        /** Lê a entidade, soma o aumento em memória e deixa o dirty checking gravar */
+        READ_MODIFY_WRITE_SALARY,
+        /** Contrata um funcionário em uma empresa aleatória */
+        SAVE,
+        /** Trava a empresa com PESSIMISTIC_WRITE e remove todos os funcionários */
+        FIRE_EVERYONE,
+        /** Lê duas vezes a soma dos salários de uma empresa */
+        READ
+    }
+
+    @Getter
+    @Builder
+    public static class StressOptions {
+
+        @Builder.Default
+        private List<Isolation> isolations = Arrays.asList(Isolation.READ_COMMITTED, Isolation.REPEATABLE_READ, Isolation.SERIALIZABLE);
+
+        @Builder.Default
+        private int threads = 16;
+
+        @Builder.Default
+        private Duration duration = Duration.ofSeconds(10);
+
+        @Builder.Default
+        private int companies = 10;
+
+        @Builder.Default
+        private int employeesPerCompany = 100;
+
+        /** Quantidade de funcionários sorteados pelas operações de salário, valores pequenos concentram a disputa */
+        @Builder.Default
+        private int hotEmployees = 20;
+
+        @Builder.Default
+        private Map<Operation, Integer> weights = defaultWeights();
+
+        private static Map<Operation, Integer> defaultWeights() {
+            Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+            weights.put(Operation.INCREASE_SALARY, 40);
+            weights.put(Operation.READ_MODIFY_WRITE_SALARY, 20);
+            weights.put(Operation.SAVE, 15);
+            weights.put(Operation.FIRE_EVERYONE, 5);
+            weights.put(Operation.READ, 20);
+            return weights;
+        }
+    }
+
+    public List<StressResult> run(StressOptions options) {
+        return options.getIsolations().stream()
+                .map(isolation -> run(isolation, options))
+                .collect(Collectors.toList());
+    }
+
+    public StressResult run(Isolation isolation, StressOptions options) {
+        Dataset dataset = seed(options);
+        String name = ConcurrencyStressRunner.class.getSimpleName() + "." + isolation.name();
+        SimpleMeterRegistry runRegistry = new SimpleMeterRegistry();
+        Timer latency = Timer.builder("stress.transaction")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(runRegistry);
+        AtomicLong committed = new AtomicLong();
+        AtomicLong aborted = new AtomicLong();
+        AtomicLong nonRepeatableReads = new AtomicLong();
+        double retriesBefore = retries(name);
+        List<Operation> mix = mix(options.getWeights());
+
+        log.info("Running stress test with {} threads for {} on {}", options.getThreads(), options.getDuration(), isolation);
+        long start = System.nanoTime();
+        long deadline = start + options.getDuration().toNanos();
+        ExecutorService executor = taskExecutorFactory.newExecutor("stress-" + isolation.name().toLowerCase(), options.getThreads());
+        for (int i = 0; i < options.getThreads(); i++) {
+            executor.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    Operation operation = mix.get(ThreadLocalRandom.current().nextInt(mix.size()));
+                    long operationStart = System.nanoTime();
+                    try {
+                        taskExecutorFactory.withConnection(() -> execute(operation, isolation, name, dataset, options, nonRepeatableReads));
+                        committed.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        log.debug("{} aborted on {}", operation, isolation, e);
+                        aborted.incrementAndGet();
+                    }
+                    long elapsed = System.nanoTime() - operationStart;
+                    latency.record(elapsed, TimeUnit.NANOSECONDS);
+                    metrics.timer("stress.transaction", "isolation", isolation.name(), "operation", operation.name())
+                            .record(elapsed, TimeUnit.NANOSECONDS);
+                }
+            });
+        }
+        executor.shutdown();
+        awaitTermination(executor, options.getDuration().plusMinutes(1));
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        StressResult.StressResultBuilder result = StressResult.builder()
+                .isolation(isolation)
+                .durationMillis(durationMillis)
+                .committed(committed.get())
+                .aborted(aborted.get())
+                .retries((long) (retries(name) - retriesBefore))
+                .nonRepeatableReads(nonRepeatableReads.get());
+        for (ValueAtPercentile percentile : latency.takeSnapshot().percentileValues()) {
+            double millis = percentile.value(TimeUnit.MILLISECONDS);
+            if (percentile.percentile() == 0.5) {
+                result.p50Millis(millis);
+            } else if (percentile.percentile() == 0.95) {
+                result.p95Millis(millis);
+            } else if (percentile.percentile() == 0.99) {
+                result.p99Millis(millis);
+            }
+        }
+        verify(dataset, result);
+        StressResult stressResult = result.build();
+        log.info("Stress result {}", stressResult);
+        return stressResult;
+    }
+
+    private void execute(Operation operation, Isolation isolation, String name, Dataset dataset, StressOptions options,
+                         AtomicLong nonRepeatableReads) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        BigDecimal increase = BigDecimal.valueOf(random.nextInt(1, 100));
+        Long employeeId = dataset.hotEmployeeIds.get(random.nextInt(dataset.hotEmployeeIds.size()));
+        Long companyId = dataset.companyIds.get(random.nextInt(dataset.companyIds.size()));
+        switch (operation) {
+            case INCREASE_SALARY: {
+                int updated = retryingTransactionExecutor.execute(name, isolation, () -> employeeRepository.increaseSalary(employeeId, increase));
+                if (updated > 0) {
+                    dataset.increases.merge(employeeId, increase, BigDecimal::add);
+                }
+                break;
+            }
+            case READ_MODIFY_WRITE_SALARY: {
+                boolean updated = retryingTransactionExecutor.execute(name, isolation, () -> employeeRepository.findById(employeeId)
+                        .map(employee -> {
+                            employee.setSalary(employee.getSalary().add(increase));
+                            return true;
+                        })
+                        .orElse(false));
+                if (updated) {
+                    dataset.increases.merge(employeeId, increase, BigDecimal::add);
+                }
+                break;
+            }
+            case SAVE: {
+                String document = PREFIX + "E-" + dataset.hired.incrementAndGet();
+                Long id = retryingTransactionExecutor.execute(name, isolation, () -> employeeRepository.save(Employee.builder()
+                        .document(document)
+                        .company(companyRepository.getReferenceById(companyId))
+                        .salary(INITIAL_SALARY)
+                        .build()).getId());
+                dataset.increases.put(id, BigDecimal.ZERO);
+                break;
+            }
+            case FIRE_EVERYONE: {
+                if (dataset.fireableCompanyIds.isEmpty()) {
+                    break;
+                }
+                Long fireableCompanyId = dataset.fireableCompanyIds.get(random.nextInt(dataset.fireableCompanyIds.size()));
+                retryingTransactionExecutor.execute(name, isolation, () -> {
+                    Company company = companyRepository.findByIdPessimisticWrite(fireableCompanyId);
+                    return employeeService.deleteAll(company, document -> { });
+                });
+                break;
+            }
+            case READ: {
+                boolean changed = retryingTransactionExecutor.execute(name, isolation, () -> {
+                    BigDecimal first = sumSalaries(companyId);
+                    BigDecimal second = sumSalaries(companyId);
+                    return first.compareTo(second) != 0;
+                });
+                if (changed) {
+                    nonRepeatableReads.incrementAndGet();
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private BigDecimal sumSalaries(Long companyId) {
+        return jdbcTemplate.queryForObject("select coalesce(sum(salary), 0) from employee where company_id = ?", BigDecimal.class, companyId);
+    }
+
+    private void verify(Dataset dataset, StressResult.StressResultBuilder result) {
+        AtomicLong violations = new AtomicLong();
+        BigDecimal[] totals = {BigDecimal.ZERO, BigDecimal.ZERO};
+        jdbcTemplate.query("select e.id, e.salary from employee e join company c on c.id = e.company_id where c.document like ?",
+                rs -> {
+                    long id = rs.getLong(1);
+                    BigDecimal actual = rs.getBigDecimal(2);
+                    BigDecimal increases = dataset.increases.get(id);
+                    BigDecimal expected = INITIAL_SALARY.add(increases == null ? BigDecimal.ZERO : increases);
+                    if (increases == null || expected.compareTo(actual) != 0) {
+                        violations.incrementAndGet();
+                    }
+                    totals[0] = totals[0].add(expected);
+                    totals[1] = totals[1].add(actual);
+                },
+                PREFIX + "%");
+        Long orphans = jdbcTemplate.queryForObject("select count(*) from employee e " +
+                "where e.company_id is not null and not exists (select 1 from company c where c.id = e.company_id)", Long.class);
+        result.salaryViolations(violations.get())
+                .salaryTotalDifference(totals[0].subtract(totals[1]).toPlainString())
+                .orphanEmployees(orphans == null ? 0 : orphans);
+    }
+
+    private Dataset seed(StressOptions options) {
+        if (options.getCompanies() <= 0 || options.getEmployeesPerCompany() <= 0 || options.getHotEmployees() <= 0) {
+            throw new IllegalArgumentException("The stress dataset needs companies, employees and hot employees");
+        }
+        jdbcTemplate.update("delete from employee where company_id in (select id from company where document like ?)", PREFIX + "%");
+        jdbcTemplate.update("delete from company where document like ?", PREFIX + "%");
+        List<Company> companies = companyRepository.saveAll(IntStream.range(0, options.getCompanies())
+                .mapToObj(i -> Company.builder().document(PREFIX + "C-" + i).name("STRESS " + i).build())
+                .collect(Collectors.toList()));
+        bulkCopyRepository.copyEmployees(companies.stream()
+                .flatMap(company -> IntStream.range(0, options.getEmployeesPerCompany())
+                        .mapToObj(i -> Employee.builder()
+                                .document(PREFIX + company.getId() + "-" + i)
+                                .company(company)
+                                .salary(INITIAL_SALARY)
+                                .build())));
+        Dataset dataset = new Dataset();
+        int hotCompanies = (companies.size() + 1) / 2;
+        for (int i = 0; i < companies.size(); i++) {
+            dataset.companyIds.add(companies.get(i).getId());
+            if (i >= hotCompanies) {
+                dataset.fireableCompanyIds.add(companies.get(i).getId());
+            }
+        }
+        jdbcTemplate.queryForList("select e.id from employee e join company c on c.id = e.company_id where c.document like ?",
+                        Long.class, PREFIX + "%")
+                .forEach(id -> dataset.increases.put(id, BigDecimal.ZERO));
+        // Alterna entre as empresas disputadas: o primeiro funcionário de cada uma, depois o segundo, e assim por diante
+        String hotCompanyIds = dataset.companyIds.subList(0, hotCompanies).stream()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+        dataset.hotEmployeeIds.addAll(jdbcTemplate.queryForList("select id from (" +
+                        "select e.id, e.company_id, row_number() over (partition by e.company_id order by e.id) as position " +
+                        "from employee e where e.company_id in (" + hotCompanyIds + ")) ranked " +
+                        "order by position, company_id limit ?",
+                Long.class, options.getHotEmployees()));
+        return dataset;
+    }
+
+    private double retries(String name) {
+        return metrics.getRegistry().find("transaction.retries").tag("name", name).counters().stream()
+                .mapToDouble(Counter::count)
+                .sum();
+    }
+
+    private static List<Operation> mix(Map<Operation, Integer> weights) {
+        List<Operation> mix = new ArrayList<>();
+        weights.forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                mix.add(operation);
+            }
+        });
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("At least one operation must have a positive weight");
+        }
+        return mix;
+    }
+
+    private static void awaitTermination(ExecutorService executor, Duration timeout) {
+        try {
+            if (!executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+                throw new IllegalStateException("Stress threads did not finish within " + timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            throw new IllegalStateException("Interrupted waiting for stress threads", e);
+        }
+    }
+
+    private static class Dataset {
+
+        private final List<Long> companyIds = new ArrayList<>();
+        private final List<Long> fireableCompanyIds = new ArrayList<>();
+        private final List<Long> hotEmployeeIds = new ArrayList<>();
+        private final Map<Long, BigDecimal> increases = new ConcurrentHashMap<>();
+        private final AtomicLong hired = new AtomicLong();
+    }
+}
@@ -3,14 +3,22 @@ package com.pensarcomodev.transactional.service;
 import com.pensarcomodev.transactional.entity.Company;
 import com.pensarcomodev.transactional.entity.Employee;
 import com.pensarcomodev.transactional.exception.SalaryException;
+import com.pensarcomodev.transactional.repository.EmployeeBatchRepository;
 import com.pensarcomodev.transactional.repository.EmployeeRepository;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.persistence.EntityManager;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
@@ -19,15 +27,58 @@ public class EmployeeService {
     @Autowired
     private EmployeeRepository employeeRepository;
 
+    @Autowired
+    private EmployeeBatchRepository employeeBatchRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Value("${app.employee.delete-chunk-size:1000}")
+    private int deleteChunkSize;
+
+    @Value("${app.employee.insert-statement-size:1000}")
+    private int insertStatementSize;
+
     public Employee save(Employee employee) {
         return employeeRepository.save(employee);
     }
 
     public Employee validateAndSave(Employee employee) throws SalaryException {
+        validate(employee);
+        return save(employee);
+    }
+
+    /**
+     * Valida todos os funcionários sem acessar o banco, para que uma lista com algum inválido seja recusada antes de
+     * qualquer escrita, inclusive a da empresa.
+     */
+    public void validateAll(List<Employee> employees) throws SalaryException {
+        for (Employee employee : employees) {
+            validate(employee);
+        }
+    }
+
+    /**
+     * Insere os funcionários na empresa com comandos de várias linhas por EmployeeBatchRepository.insertAll, sem
+     * validá-los (ver validateAll).
+     *
+     * A empresa é enviada ao banco antes dos funcionários por causa da chave estrangeira. Os funcionários inseridos
+     * recebem os ids gerados mas não ficam gerenciados pelo EntityManager.
+     */
+    public List<Employee> insertAll(Company company, List<Employee> employees) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            entityManager.flush();
+        }
+        employees.forEach(employee -> employee.setCompany(company));
+        employeeBatchRepository.insertAll(employees, insertStatementSize);
+        log.info("Inserted {} employees of company {}", employees.size(), company.getId());
+        return employees;
+    }
+
+    private void validate(Employee employee) throws SalaryException {
         if (employee.getSalary() != null && employee.getSalary().compareTo(BigDecimal.ZERO) < 0) {
             throw new SalaryException();
         }
-        return save(employee);
     }
 
     public List<Employee> findByCompany(Company company) {
@@ -36,12 +87,56 @@ public class EmployeeService {
 
     public List<String> deleteAll(Company company) {
         List<String> firedDocuments = new ArrayList<>();
-        List<Employee> employees = findByCompany(company);
-        employees.stream().map(Employee::getDocument).forEach(firedDocuments::add);
-        deleteAll(employees);
+        deleteAll(company, firedDocuments::add);
         return firedDocuments;
     }
 
+    public long deleteAll(Company company, Consumer<String> firedDocuments) {
+        return deleteAll(company, deleteChunkSize, firedDocuments);
+    }
+
+    /**
+     * Remove todos os funcionários da empresa sem carregá-los, com comandos DELETE ... RETURNING de no máximo
+     * chunkSize registros cada, entregando os documentos removidos ao consumer à medida que cada lote termina.
+     *
+     * Um lote menor que chunkSize não indica o fim: linhas removidas por uma transação concorrente são descartadas do
+     * lote quando o DELETE as reavalia, por isso os lotes continuam até um deles voltar vazio.
+     *
+     * Dentro de uma transação todos os lotes fazem parte dela, e os funcionários da empresa que estavam no
+     * EntityManager são desanexados, pois não existem mais no banco. Fora de uma transação cada lote é comitado
+     * individualmente, evitando segurar locks e gerar WAL de uma vez só para empresas muito grandes.
+     */
+    public long deleteAll(Company company, int chunkSize, Consumer<String> firedDocuments) {
+        boolean transactional = TransactionSynchronizationManager.isActualTransactionActive();
+        if (transactional) {
+            entityManager.flush();
+        }
+        long deleted = 0;
+        List<String> chunk;
+        do {
+            chunk = employeeBatchRepository.deleteByCompany(company.getId(), chunkSize);
+            chunk.forEach(firedDocuments);
+            deleted += chunk.size();
+        } while (!chunk.isEmpty());
+        if (transactional && deleted > 0) {
+            detachEmployees(company);
+        }
+        log.info("Deleted {} employees of company {}", deleted, company.getId());
+        return deleted;
+    }
+
+    private void detachEmployees(Company company) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        for (Map.Entry<Object, EntityEntry> entry : session.getPersistenceContext().reentrantSafeEntityEntries()) {
+            if (entry.getKey() instanceof Employee) {
+                Employee employee = (Employee) entry.getKey();
+                if (employee.getCompany() != null && company.getId().equals(employee.getCompany().getId())) {
+                    entityManager.detach(employee);
+                }
+            }
+        }
+    }
+
     public void deleteAll(List<Employee> employees) {
         log.info("Deleting employees {}", employees);
         employeeRepository.deleteAll(employees);
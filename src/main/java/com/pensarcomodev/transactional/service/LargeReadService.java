@@ -1,13 +1,26 @@
 package com.pensarcomodev.transactional.service;
 
+import com.pensarcomodev.transactional.config.DataSourceConfiguration;
+import com.pensarcomodev.transactional.dto.ReadModeStats;
 import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.entity.Employee;
+import com.pensarcomodev.transactional.metrics.Metrics;
+import com.pensarcomodev.transactional.persistence.PersistenceContextGuard;
+import com.pensarcomodev.transactional.persistence.PersistenceContextGuardAspect;
 import com.pensarcomodev.transactional.repository.CompanyRepository;
+import com.pensarcomodev.transactional.repository.KeysetCursor;
 import com.pensarcomodev.transactional.util.HibernateUtils;
 import com.pensarcomodev.transactional.util.TimeMetric;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
@@ -15,9 +28,17 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Slf4j
 @Service
@@ -28,6 +49,10 @@ public class LargeReadService {
     private Session session;
     private Statistics statistics;
     private final CompanyRepository companyRepository;
+    private final Metrics metrics;
+    private final PersistenceContextGuardAspect persistenceContextGuard;
+    @Qualifier(DataSourceConfiguration.BULK_DATA_SOURCE)
+    private final DataSource bulkDataSource;
 
     @PostConstruct
     public void setup() {
@@ -45,6 +70,50 @@ public class LargeReadService {
         return HibernateUtils.getNumberOfManagedEntities2(session);
     }
 
+    /**
+     * Mesma leitura de selectAllOnTransaction, medindo o contexto de persistência ao final. O whileManaged é executado
+     * antes do fim da transação, com as entidades ainda gerenciadas, por exemplo para medir o heap.
+     */
+    @Transactional
+    public ReadModeStats selectAllOnTransactionStats(Runnable whileManaged) {
+        List<Company> all = companyRepository.findAll();
+        return readModeStats(whileManaged);
+    }
+
+    /**
+     * Em uma transação readOnly o Spring abre a sessão do Hibernate com FlushMode.MANUAL e com as entidades somente
+     * leitura por padrão, e marca a conexão JDBC como somente leitura. As entidades continuam gerenciadas, mas sem a
+     * cópia do estado carregado, e o commit não faz flush.
+     */
+    @Transactional(readOnly = true)
+    public ReadModeStats selectAllOnReadOnlyTransaction(Runnable whileManaged) {
+        List<Company> all = companyRepository.findAll();
+        return readModeStats(whileManaged);
+    }
+
+    /**
+     * Apenas as entidades da query com a hint org.hibernate.readOnly são somente leitura, o restante da transação
+     * continua normal.
+     */
+    @Transactional
+    public ReadModeStats selectAllWithReadOnlyHint(Runnable whileManaged) {
+        List<Company> all = companyRepository.findAllReadOnly();
+        return readModeStats(whileManaged);
+    }
+
+    private ReadModeStats readModeStats(Runnable whileManaged) {
+        TimeMetric flush = new TimeMetric();
+        session.flush();
+        long flushNanos = flush.getDurationNanos();
+        whileManaged.run();
+        return ReadModeStats.builder()
+                .managedEntities(HibernateUtils.getNumberOfManagedEntities2(session))
+                .snapshots(HibernateUtils.getNumberOfSnapshots(session))
+                .flushNanos(flushNanos)
+                .connectionReadOnly(session.doReturningWork(Connection::isReadOnly))
+                .build();
+    }
+
     public List<Integer> selectAllWithStreamWithoutTransaction() {
         return selectAllWithStream();
     }
@@ -56,36 +125,167 @@ public class LargeReadService {
 
     public List<Integer> selectAllWithStream() {
         List<Integer> entityCount = new ArrayList<>();
+        AtomicInteger read = new AtomicInteger();
         Stream<Company> stream = companyRepository.findAllWithStream();
         stream.forEach(i -> {
-            if (i.getId() % 100 == 0) {
+            if (read.incrementAndGet() % 100 == 0) {
                 entityCount.add(HibernateUtils.getNumberOfManagedEntities2(session));
             }
         });
         return entityCount;
     }
 
+    /**
+     * Stream de todas as empresas lido por um StatelessSession com cursor FORWARD_ONLY. Como não há contexto de
+     * persistência as entidades lidas não são gerenciadas e podem ser coletadas pelo GC assim que consumidas, mantendo
+     * em memória apenas as fetchSize linhas do cursor. O stream deve ser fechado pelo chamador.
+     */
+    public Stream<Company> streamAllStateless(int fetchSize) {
+        SessionFactory sessionFactory = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class);
+        // A conexão fica presa até o fechamento do stream, por isso vem do pool de leituras longas. Ela pertence ao
+        // stream e não à transação Spring corrente, então é obtida e devolvida diretamente ao pool
+        Connection connection;
+        try {
+            connection = bulkDataSource.getConnection();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not obtain a connection for the stateless stream", e);
+        }
+        StatelessSession statelessSession;
+        Transaction transaction;
+        ScrollableResults results;
+        try {
+            statelessSession = sessionFactory.withStatelessOptions().connection(connection).openStatelessSession();
+            try {
+                // O driver do PostgreSQL só respeita o fetchSize com autocommit desligado, por isso o cursor é aberto em uma transação
+                transaction = statelessSession.beginTransaction();
+                try {
+                    results = statelessSession.createQuery("select c from Company c", Company.class)
+                            .setFetchSize(fetchSize)
+                            .scroll(ScrollMode.FORWARD_ONLY);
+                } catch (RuntimeException e) {
+                    transaction.rollback();
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                statelessSession.close();
+                throw e;
+            }
+        } catch (RuntimeException e) {
+            closeQuietly(connection);
+            throw e;
+        }
+        Spliterator<Company> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Company> action) {
+                if (!results.next()) {
+                    return false;
+                }
+                action.accept((Company) results.get(0));
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false)
+                .onClose(() -> {
+                    try {
+                        results.close();
+                        transaction.rollback();
+                    } finally {
+                        try {
+                            statelessSession.close();
+                        } finally {
+                            closeQuietly(connection);
+                        }
+                    }
+                });
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("Error releasing the stateless stream connection", e);
+        }
+    }
+
+    @Transactional
+    public List<Integer> selectAllWithStatelessStreamWithTransaction(int fetchSize) {
+        return selectAllWithStatelessStream(fetchSize);
+    }
+
+    public List<Integer> selectAllWithStatelessStream(int fetchSize) {
+        List<Integer> entityCount = new ArrayList<>();
+        AtomicInteger read = new AtomicInteger();
+        try (Stream<Company> stream = streamAllStateless(fetchSize)) {
+            stream.forEach(i -> {
+                if (read.incrementAndGet() % 100 == 0) {
+                    entityCount.add(HibernateUtils.getNumberOfManagedEntities2(session));
+                }
+            });
+        }
+        return entityCount;
+    }
+
     @Transactional
     public List<Integer> selectIndexPaginationWithTransaction(boolean callClear, int pageSize) {
         return selectIndexPaginationWithoutTransaction(callClear, pageSize);
     }
 
+    /**
+     * Paginação via índice em uma transação readOnly, medindo o contexto de persistência após a última página.
+     */
+    @Transactional(readOnly = true)
+    public ReadModeStats selectIndexPaginationWithReadOnlyTransaction(boolean callClear, int pageSize) {
+        selectIndexPaginationWithoutTransaction(callClear, pageSize);
+        return readModeStats(() -> { });
+    }
+
     public List<Integer> selectIndexPaginationWithoutTransaction(boolean callClear, int pageSize) {
         List<Integer> entityCount = new ArrayList<>();
-        Pageable page = PageRequest.of(0, pageSize);
-        Long lastId;
-        List<Company> paginationByIndex = companyRepository.findPaginationByIndex(page);
-        while (!paginationByIndex.isEmpty()) {
-            lastId = paginationByIndex.get(paginationByIndex.size() - 1).getId();
-            entityCount.add(HibernateUtils.getNumberOfManagedEntities2(session));
-            if (callClear) {
-                entityManager.clear();
-            }
-            paginationByIndex = companyRepository.findPaginationByIndex(lastId, page);
-        }
+        companyCursor(pageSize)
+                .clearAfterPage(callClear)
+                .forEach(page -> entityCount.add(HibernateUtils.getNumberOfManagedEntities2(session)));
         return entityCount;
     }
 
+    @Transactional
+    @PersistenceContextGuard(maxManagedEntities = 5000)
+    public List<Integer> selectIndexPaginationGuarded(int pageSize) {
+        return selectIndexPaginationWithGuardCheckpoint(pageSize);
+    }
+
+    @Transactional
+    @PersistenceContextGuard(maxManagedEntities = 5000, action = PersistenceContextGuard.Action.FAIL)
+    public List<Integer> selectIndexPaginationGuardedFailFast(int pageSize) {
+        return selectIndexPaginationWithGuardCheckpoint(pageSize);
+    }
+
+    /**
+     * O cursor não limpa o entityManager por conta própria, quem limpa é o guard antes de cada página. As páginas do
+     * cursor não passam por um repositório, por isso o guard é acionado explicitamente.
+     */
+    private List<Integer> selectIndexPaginationWithGuardCheckpoint(int pageSize) {
+        List<Integer> entityCount = new ArrayList<>();
+        companyCursor(pageSize)
+                .clearAfterPage(false)
+                .beforePage(() -> persistenceContextGuard.checkpoint("KeysetCursor.page"))
+                .forEach(page -> entityCount.add(HibernateUtils.getNumberOfManagedEntities2(session)));
+        return entityCount;
+    }
+
+    public KeysetCursor<Company> companyCursor(int pageSize) {
+        return KeysetCursor.of(entityManager, Company.class)
+                .key("id", Long.class, Company::getId)
+                .pageSize(pageSize);
+    }
+
+    public KeysetCursor<Employee> employeeCursor(int pageSize) {
+        return KeysetCursor.of(entityManager, Employee.class)
+                .key("company.id", Long.class, e -> e.getCompany().getId())
+                .key("id", Long.class, Employee::getId)
+                .pageSize(pageSize);
+    }
+
     public List<Integer> selectInBatchesWithOffsetPagination(int pageSize) {
         List<Integer> queryTime = new ArrayList<>();
         Pageable page = PageRequest.of(0, pageSize);
@@ -93,6 +293,7 @@ public class LargeReadService {
         while (!paginationByIndex.isEmpty()) {
             TimeMetric timeMetric = new TimeMetric();
             paginationByIndex = companyRepository.findPaginationByIndex(page);
+            timeMetric.record(metrics.timer("large_read.page", "pagination", "offset"));
             queryTime.add((int) timeMetric.getDuration());
             page = page.next();
             log.info("page {}", page);
@@ -0,0 +1,74 @@
+package com.pensarcomodev.transactional.service;
+
+import com.pensarcomodev.transactional.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
+import java.util.function.Consumer;
+
+/**
+ * Aplica uma alteração em uma entidade versionada (@Version) sem locks no banco: a entidade é lida, alterada e o update
+ * é feito com a condição da versão lida. Se outra transação alterou o registro nesse intervalo, o update não encontra
+ * a versão, a transação é desfeita e a alteração é reaplicada sobre o estado atual, relido em uma nova transação.
+ *
+ * A alteração pode ser executada mais de uma vez, portanto deve depender apenas da entidade recebida.
+ *
+ * Métricas: optimistic_lock.attempts e optimistic_lock.conflicts (entity), cuja razão é a taxa de conflitos, e
+ * optimistic_lock.exhausted (entity) quando as tentativas acabam.
+ */
+@Slf4j
+@Service
+public class OptimisticUpdateService {
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private Metrics metrics;
+
+    @Value("${app.optimistic.max-attempts:5}")
+    private int maxAttempts;
+
+    public <T> T update(Class<T> entityClass, Object id, Consumer<T> change) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Optimistic update of " + entityClass.getSimpleName() + " requires its own transaction, but one is already active");
+        }
+        String entity = entityClass.getSimpleName();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setName(OptimisticUpdateService.class.getName() + ".update");
+        for (int attempt = 1; ; attempt++) {
+            metrics.getRegistry().counter("optimistic_lock.attempts", "entity", entity).increment();
+            try {
+                return transactionTemplate.execute(status -> {
+                    T current = entityManager.find(entityClass, id);
+                    if (current == null) {
+                        throw new EntityNotFoundException(entity + " " + id + " not found");
+                    }
+                    change.accept(current);
+                    entityManager.flush();
+                    return current;
+                });
+            } catch (OptimisticLockException | ObjectOptimisticLockingFailureException e) {
+                metrics.getRegistry().counter("optimistic_lock.conflicts", "entity", entity).increment();
+                if (attempt >= maxAttempts) {
+                    metrics.getRegistry().counter("optimistic_lock.exhausted", "entity", entity).increment();
+                    log.warn("{} {} still conflicting after {} attempts", entity, id, attempt);
+                    throw e;
+                }
+                log.info("{} {} was changed by another transaction, reapplying change (attempt {})", entity, id, attempt);
+            }
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.pensarcomodev.transactional.service;
+
+import com.pensarcomodev.transactional.concurrency.TaskExecutorFactory;
+import com.pensarcomodev.transactional.concurrency.ThreadMode;
+import com.pensarcomodev.transactional.config.DataSourceConfiguration;
+import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.entity.Employee;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Leitura de uma tabela inteira dividida em faixas disjuntas de id, cada uma lida em sua própria conexão e transação
+ * por um pool limitado de threads. Com consistentSnapshot todas as faixas são lidas sobre o mesmo snapshot, exportado
+ * por uma transação coordenadora com pg_export_snapshot(), e enxergam exatamente os mesmos dados.
+ *
+ * As conexões vêm do pool bulkDataSource, separado do pool usado pelas transações da aplicação. Com threads de
+ * plataforma o pool de poolSize threads limita as faixas lidas ao mesmo tempo; com threads virtuais cada faixa tem sua
+ * thread e o limite de poolSize faixas simultâneas vem de um semáforo.
+ */
+@Slf4j
+@Service
+public class PartitionedScanService {
+
+    public static final ScanTable<Company> COMPANY = new ScanTable<>("company", "id, document, name",
+            (rs, i) -> Company.builder()
+                    .id(rs.getLong("id"))
+                    .document(rs.getString("document"))
+                    .name(rs.getString("name"))
+                    .build());
+
+    public static final ScanTable<Employee> EMPLOYEE = new ScanTable<>("employee", "id, document, salary, company_id",
+            (rs, i) -> {
+                Long companyId = rs.getObject("company_id", Long.class);
+                return Employee.builder()
+                        .id(rs.getLong("id"))
+                        .document(rs.getString("document"))
+                        .salary(rs.getBigDecimal("salary"))
+                        .company(companyId == null ? null : Company.builder().id(companyId).build())
+                        .build();
+            });
+
+    private static final Object END = new Object();
+    private static final Pattern SNAPSHOT_ID = Pattern.compile("[0-9A-Fa-f-]+");
+
+    private final DataSource dataSource;
+    private final TaskExecutorFactory taskExecutorFactory;
+    private final int poolSize;
+    private final int fetchSize;
+    private final Semaphore rangePermits;
+    private ExecutorService executor;
+
+    public PartitionedScanService(@Qualifier(DataSourceConfiguration.BULK_DATA_SOURCE) DataSource dataSource,
+                                  TaskExecutorFactory taskExecutorFactory,
+                                  @Value("${app.scan.pool-size:4}") int poolSize,
+                                  @Value("${app.scan.fetch-size:1000}") int fetchSize) {
+        this.dataSource = dataSource;
+        this.taskExecutorFactory = taskExecutorFactory;
+        this.poolSize = poolSize;
+        this.fetchSize = fetchSize;
+        this.rangePermits = new Semaphore(poolSize, true);
+    }
+
+    @PostConstruct
+    public void setup() {
+        executor = taskExecutorFactory.newExecutor("partitioned-scan", poolSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Lê todas as faixas chamando o sink para cada linha, bloqueando até o fim da leitura. O sink é chamado em paralelo
+     * pelas threads do pool e deve ser thread-safe; um sink lento segura as threads de leitura.
+     *
+     * @return total de linhas lidas
+     */
+    public <T> long scan(ScanTable<T> table, ScanOptions options, Consumer<T> sink) {
+        try {
+            return scanAsync(table, options, sink).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stream alimentado pelas threads de leitura através de uma fila limitada a bufferSize linhas. Quando a fila enche
+     * as threads de leitura aguardam o consumo, de forma que leitores rápidos não ultrapassam um consumidor lento. A
+     * ordem dos elementos não é garantida e o stream deve ser fechado pelo chamador.
+     */
+    public <T> Stream<T> stream(ScanTable<T> table, ScanOptions options) {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(options.getBufferSize());
+        AtomicBoolean closed = new AtomicBoolean();
+        scanAsync(table, options, item -> offer(queue, item, closed))
+                .whenComplete((rows, error) -> offer(queue, error == null ? END : new ScanFailure(error), closed));
+
+        Iterator<T> iterator = new Iterator<>() {
+            private Object next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CancellationException("Interrupted while waiting for scan results");
+                    }
+                }
+                if (next instanceof ScanFailure) {
+                    Throwable cause = ((ScanFailure) next).cause;
+                    throw cause instanceof CompletionException && cause.getCause() instanceof RuntimeException
+                            ? (RuntimeException) cause.getCause()
+                            : new IllegalStateException("Partitioned scan failed", cause);
+                }
+                return next != END;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T item = (T) next;
+                next = null;
+                return item;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    closed.set(true);
+                    queue.clear();
+                });
+    }
+
+    /**
+     * Divide a faixa de ids da tabela em até partitions faixas disjuntas. MIN_MAX divide o intervalo entre o menor e o
+     * maior id em partes iguais, SAMPLED usa os quantis de uma amostra dos ids e se adapta a buracos na sequência.
+     */
+    public List<KeyRange> split(ScanTable<?> table, int partitions, SplitStrategy strategy) {
+        try (Connection connection = dataSource.getConnection()) {
+            return split(connection, table, partitions, strategy);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not split " + table.name, e);
+        }
+    }
+
+    private <T> CompletableFuture<Long> scanAsync(ScanTable<T> table, ScanOptions options, Consumer<T> sink) {
+        Connection snapshotConnection = null;
+        try {
+            String snapshotId = null;
+            if (options.isConsistentSnapshot()) {
+                snapshotConnection = dataSource.getConnection();
+                snapshotId = exportSnapshot(snapshotConnection);
+            }
+            List<KeyRange> ranges = snapshotConnection != null
+                    ? split(snapshotConnection, table, options.getPartitions(), options.getSplitStrategy())
+                    : split(table, options.getPartitions(), options.getSplitStrategy());
+            log.info("Scanning {} in {} ranges {}", table.name, ranges.size(), ranges);
+
+            // O allOf só completa depois de todas as faixas, e cancelar um CompletableFuture não interrompe a thread que
+            // o executa. A primeira falha fica registrada aqui e as demais faixas param na próxima linha lida.
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            String snapshot = snapshotId;
+            for (KeyRange range : ranges) {
+                futures.add(CompletableFuture.supplyAsync(() -> limited(() -> scanRange(table, range, snapshot, sink, failure)), executor)
+                        .whenComplete((rows, error) -> {
+                            if (error != null) {
+                                failure.compareAndSet(null, error instanceof CompletionException && error.getCause() != null
+                                        ? error.getCause() : error);
+                            }
+                        }));
+            }
+            Connection toRelease = snapshotConnection;
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .handle((ignored, error) -> {
+                        release(toRelease);
+                        if (error != null) {
+                            throw new CompletionException(failure.get() != null ? failure.get() : error);
+                        }
+                        return futures.stream().mapToLong(CompletableFuture::join).sum();
+                    });
+        } catch (SQLException | RuntimeException e) {
+            release(snapshotConnection);
+            throw e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException("Could not start scan", e);
+        }
+    }
+
+    private <T> long scanRange(ScanTable<T> table, KeyRange range, String snapshotId, Consumer<T> sink,
+                               AtomicReference<Throwable> failure) {
+        checkNotAborted(table, range, failure);
+        String sql = "select " + table.columns + " from " + table.name + " where id >= ? and id < ? order by id";
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            try {
+                if (snapshotId != null) {
+                    connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("set transaction snapshot '" + snapshotId + "'");
+                    }
+                }
+                long rows = 0;
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    statement.setFetchSize(fetchSize);
+                    statement.setLong(1, range.getFrom());
+                    statement.setLong(2, range.getTo());
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            checkNotAborted(table, range, failure);
+                            sink.accept(table.mapper.mapRow(rs, (int) rows++));
+                        }
+                    }
+                }
+                connection.commit();
+                log.debug("Range {} of {} read {} rows", range, table.name, rows);
+                return rows;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not scan " + table.name + " range " + range, e);
+        }
+    }
+
+    /**
+     * O executor de threads virtuais ignora poolSize, então o número de faixas simultâneas, e de conexões presas do
+     * pool bulk, é limitado aqui.
+     */
+    private <T> T limited(Supplier<T> work) {
+        if (taskExecutorFactory.getThreadMode() == ThreadMode.PLATFORM) {
+            return work.get();
+        }
+        try {
+            rangePermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a scan slot");
+        }
+        try {
+            return work.get();
+        } finally {
+            rangePermits.release();
+        }
+    }
+
+    private static void checkNotAborted(ScanTable<?> table, KeyRange range, AtomicReference<Throwable> failure) {
+        if (failure.get() != null) {
+            throw new CancellationException("Range " + range + " of " + table.name + " aborted after a failure in another range");
+        }
+    }
+
+    private List<KeyRange> split(Connection connection, ScanTable<?> table, int partitions, SplitStrategy strategy) throws SQLException {
+        long min;
+        long max;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("select min(id), max(id) from " + table.name)) {
+            rs.next();
+            if (rs.getObject(1) == null) {
+                return List.of();
+            }
+            min = rs.getLong(1);
+            max = rs.getLong(2);
+        }
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(min);
+        if (strategy == SplitStrategy.SAMPLED && partitions > 1) {
+            boundaries.addAll(sampleBoundaries(connection, table, partitions, min));
+        }
+        if (boundaries.size() == 1) {
+            long size = Math.max(1, (max - min + 1 + partitions - 1) / partitions);
+            for (long start = min + size; start <= max; start += size) {
+                boundaries.add(start);
+            }
+        }
+        boundaries.add(max + 1);
+        List<KeyRange> ranges = new ArrayList<>();
+        for (int i = 0; i < boundaries.size() - 1; i++) {
+            ranges.add(new KeyRange(boundaries.get(i), boundaries.get(i + 1)));
+        }
+        return ranges;
+    }
+
+    private List<Long> sampleBoundaries(Connection connection, ScanTable<?> table, int partitions, long min) throws SQLException {
+        Double[] fractions = new Double[partitions - 1];
+        for (int i = 1; i < partitions; i++) {
+            fractions[i - 1] = (double) i / partitions;
+        }
+        // amostra de ~1% das páginas da tabela, suficiente para estimar os quantis sem ler a tabela toda
+        String sql = "select percentile_disc(?) within group (order by id) from " + table.name + " tablesample system (1)";
+        List<Long> boundaries = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setArray(1, connection.createArrayOf("float8", fractions));
+            try (ResultSet rs = statement.executeQuery()) {
+                Array result = rs.next() ? rs.getArray(1) : null;
+                if (result == null) {
+                    return boundaries;
+                }
+                long previous = min;
+                for (Object value : (Object[]) result.getArray()) {
+                    long boundary = ((Number) value).longValue();
+                    if (boundary > previous) {
+                        boundaries.add(boundary);
+                        previous = boundary;
+                    }
+                }
+            }
+        }
+        return boundaries;
+    }
+
+    private String exportSnapshot(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        connection.setReadOnly(true);
+        connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("select pg_export_snapshot()")) {
+            rs.next();
+            String snapshotId = rs.getString(1);
+            if (!SNAPSHOT_ID.matcher(snapshotId).matches()) {
+                throw new IllegalStateException("Unexpected snapshot id " + snapshotId);
+            }
+            return snapshotId;
+        }
+    }
+
+    private void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.rollback();
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("Could not release snapshot connection", e);
+        }
+    }
+
+    private static void offer(BlockingQueue<Object> queue, Object item, AtomicBoolean closed) {
+        try {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                if (closed.get()) {
+                    throw new CancellationException("Stream closed by consumer");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while publishing scan results");
+        }
+    }
+
+    public enum SplitStrategy {
+        MIN_MAX, SAMPLED
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class KeyRange {
+
+        /** inclusivo */
+        private long from;
+
+        /** exclusivo */
+        private long to;
+    }
+
+    @Getter
+    @Builder
+    public static class ScanOptions {
+
+        @Builder.Default
+        private int partitions = 4;
+
+        @Builder.Default
+        private SplitStrategy splitStrategy = SplitStrategy.MIN_MAX;
+
+        @Builder.Default
+        private boolean consistentSnapshot = false;
+
+        @Builder.Default
+        private int bufferSize = 1000;
+    }
+
+    public static class ScanTable<T> {
+
+        private final String name;
+        private final String columns;
+        private final RowMapper<T> mapper;
+
+        private ScanTable(String name, String columns, RowMapper<T> mapper) {
+            this.name = name;
+            this.columns = columns;
+            this.mapper = mapper;
+        }
+    }
+
+    private static class ScanFailure {
+
+        private final Throwable cause;
+
+        private ScanFailure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
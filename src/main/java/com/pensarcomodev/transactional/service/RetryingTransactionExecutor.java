@@ -0,0 +1,155 @@
+package com.pensarcomodev.transactional.service;
+
+import com.pensarcomodev.transactional.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Executa uma unidade de trabalho em uma transação própria, repetindo a transação inteira quando ela falha por
+ * disputa de locks no Postgres:
+ *
+ * 40P01 deadlock_detected: o Postgres abortou esta transação para desfazer um deadlock
+ * 40001 serialization_failure: conflito de escrita nos isolamentos REPEATABLE_READ e SERIALIZABLE
+ * 55P03 lock_not_available: o lock não foi obtido dentro do lock_timeout da tentativa (ou NOWAIT)
+ *
+ * Cada tentativa define SET LOCAL lock_timeout, de forma que uma espera longa por lock vira uma falha rápida e
+ * uma nova tentativa em vez de segurar a conexão até o timeout da transação. Entre as tentativas a espera é
+ * exponencial com jitter total (aleatória entre zero e o limite da tentativa), espalhando as transações que colidiram.
+ *
+ * Como a transação inteira é repetida, o trabalho não pode ser chamado dentro de uma transação já existente e não deve
+ * ter efeitos fora do banco que não possam ser repetidos.
+ *
+ * Métricas: transaction.retries (name, reason), transaction.retry.backoff (name) com o tempo de espera entre
+ * tentativas e transaction.retry.exhausted (name, reason) quando as tentativas acabam.
+ */
+@Slf4j
+@Service
+public class RetryingTransactionExecutor {
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private Metrics metrics;
+
+    @Value("${app.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${app.retry.initial-backoff-ms:20}")
+    private long initialBackoffMs;
+
+    @Value("${app.retry.max-backoff-ms:1000}")
+    private long maxBackoffMs;
+
+    @Value("${app.retry.lock-timeout-ms:2000}")
+    private long lockTimeoutMs;
+
+    public enum RetryableFailure {
+        DEADLOCK("40P01"),
+        SERIALIZATION_FAILURE("40001"),
+        LOCK_NOT_AVAILABLE("55P03");
+
+        private final String sqlState;
+
+        RetryableFailure(String sqlState) {
+            this.sqlState = sqlState;
+        }
+
+        public String getSqlState() {
+            return sqlState;
+        }
+
+        /**
+         * Procura na cadeia de causas o SQLException original do driver e classifica pelo SQLSTATE.
+         */
+        public static Optional<RetryableFailure> classify(Throwable throwable) {
+            for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    for (RetryableFailure failure : values()) {
+                        if (failure.sqlState.equals(state)) {
+                            return Optional.of(failure);
+                        }
+                    }
+                }
+                if (cause.getCause() == cause) {
+                    break;
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    public void run(String name, Runnable work) {
+        execute(name, Isolation.DEFAULT, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public <T> T execute(String name, Supplier<T> work) {
+        return execute(name, Isolation.DEFAULT, work);
+    }
+
+    public <T> T execute(String name, Isolation isolation, Supplier<T> work) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Retrying " + name + " requires its own transaction, but one is already active");
+        }
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setName(name);
+        transactionTemplate.setIsolationLevel(isolation.value());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> {
+                    jdbcTemplate.execute("set local lock_timeout = " + lockTimeoutMs);
+                    return work.get();
+                });
+            } catch (RuntimeException e) {
+                Optional<RetryableFailure> failure = RetryableFailure.classify(e);
+                if (failure.isEmpty()) {
+                    throw e;
+                }
+                String reason = failure.get().name().toLowerCase();
+                if (attempt >= maxAttempts) {
+                    metrics.getRegistry().counter("transaction.retry.exhausted", "name", name, "reason", reason).increment();
+                    log.warn("{} failed with {} after {} attempts", name, reason, attempt);
+                    throw e;
+                }
+                metrics.getRegistry().counter("transaction.retries", "name", name, "reason", reason).increment();
+                long backoff = backoff(attempt);
+                log.info("{} failed with {} on attempt {}, retrying in {} ms", name, reason, attempt, backoff);
+                metrics.timer("transaction.retry.backoff", "name", name).record(() -> sleep(backoff));
+            }
+        }
+    }
+
+    private long backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry", e);
+        }
+    }
+}
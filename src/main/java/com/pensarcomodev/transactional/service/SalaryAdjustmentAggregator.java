@@ -0,0 +1,179 @@
+package com.pensarcomodev.transactional.service;
+
+import com.pensarcomodev.transactional.metrics.Metrics;
+import com.pensarcomodev.transactional.repository.EmployeeBatchRepository;
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Acumula aumentos de salário em memória e os aplica em lote, em vez de um UPDATE por chamada como em
+ * EmployeeRepository.increaseSalary.
+ *
+ * Chamadas concorrentes para o mesmo funcionário são somadas em uma única entrada do mapa, de forma que a linha é
+ * atualizada e bloqueada uma vez por flush, independente de quantos aumentos recebeu. O flush ocorre a cada
+ * app.salary.flush-interval-ms ou quando app.salary.flush-threshold funcionários distintos estão pendentes, aplicando
+ * todos os valores com um UPDATE ... FROM (VALUES ...) por bloco de app.salary.statement-size funcionários, todos na
+ * mesma transação.
+ *
+ * O future retornado por increaseSalary completa após o commit do flush que incluiu o aumento, ou falha se a transação
+ * falhar ou o funcionário não existir.
+ */
+@Slf4j
+@Service
+public class SalaryAdjustmentAggregator {
+
+    @Autowired
+    private EmployeeBatchRepository employeeBatchRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private Metrics metrics;
+
+    @Value("${app.salary.flush-interval-ms:10}")
+    private long flushIntervalMs;
+
+    @Value("${app.salary.flush-threshold:1000}")
+    private int flushThreshold;
+
+    @Value("${app.salary.statement-size:1000}")
+    private int statementSize;
+
+    private final Map<Long, PendingIncrease> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private ScheduledExecutorService flusher;
+    private TransactionTemplate transactionTemplate;
+    private Counter adjustments;
+    private Counter statements;
+
+    @PostConstruct
+    void start() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setName(SalaryAdjustmentAggregator.class.getName() + ".flush");
+        adjustments = metrics.getRegistry().counter("salary.adjustments");
+        statements = metrics.getRegistry().counter("salary.adjustments.statements");
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "salary-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        flush();
+    }
+
+    public CompletableFuture<Void> increaseSalary(Long id, BigDecimal increase) {
+        PendingIncrease merged = pending.compute(id, (key, current) -> {
+            if (current == null) {
+                pendingCount.incrementAndGet();
+                return new PendingIncrease(increase, new CompletableFuture<>());
+            }
+            return current.add(increase);
+        });
+        adjustments.increment();
+        if (pendingCount.get() >= flushThreshold && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushSafely);
+        }
+        return merged.completion;
+    }
+
+    /**
+     * Aplica imediatamente todos os aumentos pendentes. Chamado periodicamente, mas também pode ser chamado para
+     * garantir que nada ficou pendente, por exemplo antes de ler os salários.
+     */
+    public synchronized void flush() {
+        flushRequested.set(false);
+        SortedMap<Long, PendingIncrease> batch = new TreeMap<>();
+        for (Long id : pending.keySet()) {
+            PendingIncrease increase = pending.remove(id);
+            if (increase != null) {
+                pendingCount.decrementAndGet();
+                batch.put(id, increase);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            Set<Long> updated = metrics.record("salary.adjustments.flush", () -> transactionTemplate.execute(status -> apply(batch)));
+            batch.forEach((id, increase) -> {
+                if (updated.contains(id)) {
+                    increase.completion.complete(null);
+                } else {
+                    increase.completion.completeExceptionally(new EmptyResultDataAccessException("Employee " + id + " not found", 1));
+                }
+            });
+        } catch (RuntimeException e) {
+            log.warn("Failed to apply salary increases of {} employees", batch.size(), e);
+            batch.values().forEach(increase -> increase.completion.completeExceptionally(e));
+        }
+    }
+
+    private Set<Long> apply(SortedMap<Long, PendingIncrease> batch) {
+        Set<Long> updated = new HashSet<>(batch.size());
+        List<Long> ids = new ArrayList<>(batch.keySet());
+        for (int start = 0; start < ids.size(); start += statementSize) {
+            List<Long> chunk = ids.subList(start, Math.min(start + statementSize, ids.size()));
+            SortedMap<Long, BigDecimal> increases = new TreeMap<>();
+            chunk.forEach(id -> increases.put(id, batch.get(id).amount));
+            updated.addAll(employeeBatchRepository.increaseSalaries(increases));
+            statements.increment();
+        }
+        return updated;
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Unexpected error flushing salary increases", e);
+        }
+    }
+
+    private static class PendingIncrease {
+
+        private final BigDecimal amount;
+        private final CompletableFuture<Void> completion;
+
+        private PendingIncrease(BigDecimal amount, CompletableFuture<Void> completion) {
+            this.amount = amount;
+            this.completion = completion;
+        }
+
+        private PendingIncrease add(BigDecimal increase) {
+            return new PendingIncrease(amount.add(increase), completion);
+        }
+    }
+}
@@ -57,6 +57,17 @@ public class TransactionService {
         }
     }
 
+    /**
+     * Mesma validação de validateWithTransactionWithRollback, mas todos os funcionários são validados antes de salvar a
+     * empresa, sem nenhum acesso ao banco, e inseridos em comandos de várias linhas, em vez de um INSERT por funcionário.
+     */
+    @Transactional(rollbackFor = SalaryException.class)
+    public List<Employee> createBatchWithTransaction(Company company, List<Employee> employees) throws SalaryException {
+        employeeService.validateAll(employees);
+        company = companyService.save(company);
+        return employeeService.insertAll(company, employees);
+    }
+
     @Transactional
     public void saveCompanies(Company company1, Company company2) {
         companyService.saveOnNewTransaction(company1);
@@ -67,7 +78,7 @@ public class TransactionService {
 
     @Transactional(timeout = 1)
     public void saveCompaniesWithDeadlock(Company company1, Company company2) {
-        companyService.save(company1);
+        companyService.saveAndFlush(company1);
         log.info("Persisted {}", company1);
         companyService.saveOnNewTransaction(company2);
         log.info("Persisted {} on new transaction", company2);
@@ -0,0 +1,126 @@
+package com.pensarcomodev.transactional.service;
+
+import com.pensarcomodev.transactional.concurrency.TaskExecutorFactory;
+import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.metrics.Metrics;
+import com.pensarcomodev.transactional.repository.CompanyRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Processa uma tabela como uma fila de trabalho com vários consumidores simultâneos.
+ *
+ * Cada worker repete: abre uma transação, trava o próximo lote com SELECT ... FOR UPDATE SKIP LOCKED LIMIT n,
+ * processa o lote e comita. As linhas travadas por um worker são puladas pelos outros, portanto os lotes são
+ * disjuntos e ninguém fica bloqueado esperando, ao contrário de findByIdPessimisticWrite em que apenas uma transação
+ * por vez avança. O processamento deve tirar as linhas da condição do claim (por exemplo removendo os funcionários),
+ * senão o mesmo lote é retornado novamente na próxima transação. O trabalho termina quando um claim volta vazio.
+ *
+ * Métricas: work_queue.claimed (name) com o número de linhas processadas e work_queue.batch (name) com a duração de
+ * cada transação de lote.
+ */
+@Slf4j
+@Service
+public class WorkQueueService {
+
+    @Autowired
+    private CompanyRepository companyRepository;
+
+    @Autowired
+    private EmployeeService employeeService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private Metrics metrics;
+
+    @Autowired
+    private TaskExecutorFactory taskExecutorFactory;
+
+    /**
+     * Demite todos os funcionários de todas as empresas com workers consumidores paralelos, cada um travando
+     * batchSize empresas por transação. Os documentos são entregues ao consumer após o commit de cada lote, a partir
+     * das threads dos workers.
+     *
+     * @return quantidade de empresas processadas
+     */
+    public long fireEveryone(int workers, int batchSize, Consumer<String> firedDocuments) {
+        return process("fire_everyone", companyRepository::claimWithEmployees, workers, batchSize, companies -> {
+            List<String> fired = new ArrayList<>();
+            for (Company company : companies) {
+                employeeService.deleteAll(company, fired::add);
+            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    fired.forEach(firedDocuments);
+                }
+            });
+        });
+    }
+
+    /**
+     * @param claim consulta com FOR UPDATE SKIP LOCKED que recebe o tamanho do lote
+     * @param handler processamento do lote, executado na mesma transação do claim
+     * @return quantidade de linhas processadas
+     */
+    public <T> long process(String name, Function<Pageable, List<T>> claim, int workers, int batchSize, Consumer<List<T>> handler) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setName(WorkQueueService.class.getName() + "." + name);
+        Pageable batch = PageRequest.of(0, batchSize);
+        ExecutorService executor = taskExecutorFactory.newExecutor("work-queue-" + name, workers);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                results.add(executor.submit(() -> {
+                    long processed = 0;
+                    int claimed;
+                    do {
+                        claimed = taskExecutorFactory.withConnection(() -> metrics.record("work_queue.batch", () -> transactionTemplate.execute(status -> {
+                            List<T> items = claim.apply(batch);
+                            if (!items.isEmpty()) {
+                                handler.accept(items);
+                            }
+                            return items.size();
+                        }), "name", name));
+                        processed += claimed;
+                        metrics.getRegistry().counter("work_queue.claimed", "name", name).increment(claimed);
+                    } while (claimed > 0);
+                    log.info("Worker {} processed {} items of {}", Thread.currentThread().getName(), processed, name);
+                    return processed;
+                }));
+            }
+            long total = 0;
+            for (Future<Long> result : results) {
+                total += result.get();
+            }
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing " + name, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -1,12 +1,14 @@
 package com.pensarcomodev.transactional.util;
 
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.hibernate.engine.spi.EntityEntry;
 import org.hibernate.engine.spi.SessionImplementor;
 import org.hibernate.stat.SessionStatistics;
 import org.hibernate.stat.Statistics;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +31,16 @@ public class HibernateUtils {
         return session.getStatistics().getEntityCount();
     }
 
+    /**
+     * Entidades gerenciadas que guardam uma cópia do estado carregado para o dirty checking. Entidades somente leitura
+     * não guardam essa cópia.
+     */
+    public static int getNumberOfSnapshots(Session session) {
+        return (int) getManagedEntities(session).stream()
+                .filter(entry -> entry.getLoadedState() != null)
+                .count();
+    }
+
     public static SessionStatistics getSessionStatistics(EntityManager entityManager) {
         Session session = entityManager.unwrap(Session.class);
         return session.getStatistics();
@@ -38,4 +50,8 @@ public class HibernateUtils {
         Session session = entityManager.unwrap(Session.class);
         return session.getSessionFactory().getStatistics();
     }
+
+    public static Statistics getStatistics(EntityManagerFactory entityManagerFactory) {
+        return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
 }
@@ -1,7 +1,10 @@
 package com.pensarcomodev.transactional.util;
 
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 public class TimeMetric {
 
@@ -9,13 +12,23 @@ public class TimeMetric {
     private long end = -1L;
 
     public TimeMetric() {
-        this.start = System.currentTimeMillis();
+        this.start = System.nanoTime();
     }
 
     public long getDuration() {
+        return TimeUnit.NANOSECONDS.toMillis(getDurationNanos());
+    }
+
+    public long getDurationNanos() {
         if (end == -1L) {
-            end = System.currentTimeMillis();
+            end = System.nanoTime();
         }
         return end - start;
     }
+
+    public long record(Timer timer) {
+        long duration = getDurationNanos();
+        timer.record(duration, TimeUnit.NANOSECONDS);
+        return duration;
+    }
 }
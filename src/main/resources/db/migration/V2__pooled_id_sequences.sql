@@ -0,0 +1,15 @@
+-- Sequences com incremento igual ao allocationSize das entidades, permitindo ao Hibernate reservar blocos de ids
+-- (otimizador pooled-lo) e agrupar os inserts em batches JDBC. Os defaults das colunas passam a usar as novas
+-- sequences, portanto inserts sem id (JdbcTemplate, COPY, IDENTITY) continuam funcionando sem colisão.
+
+create sequence company_seq increment by 50;
+select setval('company_seq', coalesce((select max(id) from company), 0) + 1, false);
+alter table company alter column id set default nextval('company_seq');
+alter sequence company_seq owned by company.id;
+drop sequence company_id_seq;
+
+create sequence employee_seq increment by 50;
+select setval('employee_seq', coalesce((select max(id) from employee), 0) + 1, false);
+alter table employee alter column id set default nextval('employee_seq');
+alter sequence employee_seq owned by employee.id;
+drop sequence employee_id_seq;
@@ -0,0 +1,2 @@
+-- Índice para leituras por empresa ordenadas por id, usado na paginação via índice pela chave (company_id, id)
+create index employee_company_id_id_idx on employee (company_id, id);
@@ -0,0 +1,21 @@
+-- Coluna de versão para controle de concorrência otimista (@Version) em company e employee.
+-- Escritas que não conhecem a coluna (entidades sem @Version, JdbcTemplate, COPY) não a incrementam, então a trigger
+-- incrementa a versão em todo update que não a alterou, fazendo com que a entidade versionada detecte essas escritas.
+
+alter table company add column version bigint not null default 0;
+alter table employee add column version bigint not null default 0;
+
+create function increment_version() returns trigger as $$
+begin
+    if new.version = old.version then
+        new.version := old.version + 1;
+    end if;
+    return new;
+end;
+$$ language plpgsql;
+
+create trigger company_increment_version before update on company
+    for each row execute function increment_version();
+
+create trigger employee_increment_version before update on employee
+    for each row execute function increment_version();
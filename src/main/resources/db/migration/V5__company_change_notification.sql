@@ -0,0 +1,36 @@
+-- Publica no canal company_changed os ids das empresas alteradas ou removidas por qualquer caminho de escrita (JPA,
+-- JdbcTemplate, outras instâncias da aplicação), para que o cache de segundo nível de cada instância remova as entradas.
+-- Inserts não são notificados: uma empresa nova ainda não pode estar em nenhum cache.
+-- As notificações só são entregues após o commit. Triggers por comando com tabelas de transição enviam uma única
+-- notificação por comando, e comandos que alteram muitas linhas pedem a remoção de toda a região com '*', respeitando
+-- o limite de 8000 bytes do payload.
+--
+-- A notificação só é enviada pelas sessões com app.cache_notify = on, definido nas conexões da aplicação pelo perfil
+-- cache. Escritas feitas fora da aplicação só invalidam o cache se a sessão também ligar a configuração, por exemplo com
+-- alter database ... set app.cache_notify = on. Com a configuração desligada cada update e delete em company ainda paga
+-- a montagem da tabela de transição com as linhas alteradas, mas não a contagem nem o pg_notify.
+
+create function notify_company_changed() returns trigger as $$
+declare
+    changed bigint;
+begin
+    if coalesce(current_setting('app.cache_notify', true), '') <> 'on' then
+        return null;
+    end if;
+    select count(*) into changed from changed_rows;
+    if changed > 200 then
+        perform pg_notify('company_changed', '*');
+    elsif changed > 0 then
+        perform pg_notify('company_changed', (select string_agg(id::text, ',') from changed_rows));
+    end if;
+    return null;
+end;
+$$ language plpgsql;
+
+create trigger company_changed_update after update on company
+    referencing old table as changed_rows
+    for each statement execute function notify_company_changed();
+
+create trigger company_changed_delete after delete on company
+    referencing old table as changed_rows
+    for each statement execute function notify_company_changed();
@@ -1,5 +1,6 @@
 package com.pensarcomodev.transactional;
 
+import com.pensarcomodev.transactional.concurrency.TaskExecutorFactory;
 import com.pensarcomodev.transactional.entity.Company;
 import com.pensarcomodev.transactional.entity.Employee;
 import com.pensarcomodev.transactional.repository.CompanyNoIdGenerationRepository;
@@ -44,6 +45,9 @@ public class AbstractTest {
     @Autowired
     protected EntityManager entityManager;
 
+    @Autowired
+    protected TaskExecutorFactory taskExecutorFactory;
+
     protected static final String COMPANY_DOCUMENT = "123456000100";
     protected static final String COMPANY_DOCUMENT_2 = "123456000101";
     protected Company company;
@@ -0,0 +1,264 @@
+package com.pensarcomodev.transactional;
+
+import com.pensarcomodev.transactional.dto.CompanyEmployeesDto;
+import com.pensarcomodev.transactional.dto.EmployeeDocument;
+import com.pensarcomodev.transactional.dto.EmployeeSummary;
+import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.entity.Employee;
+import com.pensarcomodev.transactional.repository.EmployeeBatchRepository;
+import com.pensarcomodev.transactional.repository.KeysetCursor;
+import com.pensarcomodev.transactional.service.CompanyEmployeesService;
+import com.pensarcomodev.transactional.service.LargeReadService;
+import com.pensarcomodev.transactional.util.HibernateUtils;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
+
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Transactional(propagation = NOT_SUPPORTED)
+@SpringBootTest
+public class EmployeeReadTest extends AbstractTest {
+
+    private static final int COMPANIES = 10;
+    private static final int EMPLOYEES_PER_COMPANY = 20;
+
+    @Autowired
+    private CompanyEmployeesService companyEmployeesService;
+
+    @Autowired
+    private EmployeeBatchRepository employeeBatchRepository;
+
+    @Autowired
+    private LargeReadService largeReadService;
+
+    private Statistics statistics;
+    private List<Company> companies;
+
+    @BeforeEach
+    protected void setUp() {
+        super.setUp();
+        statistics = HibernateUtils.getStatistics(entityManager);
+        companies = companyRepository.saveAll(IntStream.rangeClosed(1, COMPANIES)
+                .mapToObj(i -> Company.builder()
+                        .document(String.format("%014d", i))
+                        .name("COMPANY " + i)
+                        .build())
+                .collect(Collectors.toList()));
+        List<Employee> employees = new ArrayList<>();
+        for (Company company : companies) {
+            for (int i = 0; i < EMPLOYEES_PER_COMPANY; i++) {
+                employees.add(Employee.builder()
+                        .document(String.format("%011d", employees.size() + 1))
+                        .salary(BigDecimal.valueOf(5000))
+                        .company(company)
+                        .build());
+            }
+        }
+        employeeRepository.saveAll(employees);
+    }
+
+    /**
+     * Com a empresa EAGER, cada empresa distinta dos funcionários lidos era buscada em um select próprio (N+1, aqui
+     * 1 + COMPANIES comandos). A referência abaixo reproduz isso buscando cada empresa pelo id em uma sessão sem
+     * proxies pendentes, pois na sessão do findAll até o find passaria pelo carregamento em lote. Com a empresa LAZY e
+     * hibernate.default_batch_fetch_size, o primeiro acesso a uma empresa carrega todas as empresas pendentes da sessão
+     * em um único select ... where id in (...).
+     */
+    @Test
+    public void findAll_lazyCompaniesAreBatchFetched() {
+        long statements = statistics.getPrepareStatementCount();
+        AtomicReference<List<Long>> companyIds = new AtomicReference<>();
+        transactionService.runInTransaction(() -> companyIds.set(employeeRepository.findAll().stream()
+                .map(employee -> employee.getCompany().getId())
+                .distinct()
+                .collect(Collectors.toList())));
+        AtomicReference<Set<String>> oneByOne = new AtomicReference<>();
+        transactionService.runInTransaction(() -> oneByOne.set(companyIds.get().stream()
+                .map(id -> entityManager.find(Company.class, id).getName())
+                .collect(Collectors.toSet())));
+        long oneByOneStatements = statistics.getPrepareStatementCount() - statements;
+
+        statements = statistics.getPrepareStatementCount();
+        AtomicReference<Set<String>> names = new AtomicReference<>();
+        transactionService.runInTransaction(() -> names.set(employeeRepository.findAll().stream()
+                .map(employee -> employee.getCompany().getName())
+                .collect(Collectors.toSet())));
+        long batchedStatements = statistics.getPrepareStatementCount() - statements;
+
+        assertEquals(oneByOne.get(), names.get());
+        assertEquals(COMPANIES, names.get().size());
+        assertEquals(1 + COMPANIES, oneByOneStatements);
+        assertEquals(2, batchedStatements);
+    }
+
+    /**
+     * Sem acessar a empresa, nenhum select além do dos funcionários é executado.
+     */
+    @Test
+    public void findByCompany_doesNotLoadCompany() {
+        long statements = statistics.getPrepareStatementCount();
+
+        List<Employee> employees = employeeService.findByCompany(companies.get(0));
+
+        assertEquals(EMPLOYEES_PER_COMPANY, employees.size());
+        assertEquals(1, statistics.getPrepareStatementCount() - statements);
+    }
+
+    /**
+     * O grafo Employee.withCompany traz a empresa no mesmo select, com join.
+     */
+    @Test
+    public void findAllWithCompany_usesSingleStatement() {
+        long statements = statistics.getPrepareStatementCount();
+
+        List<Employee> employees = employeeRepository.findAllWithCompany();
+
+        assertEquals(COMPANIES * EMPLOYEES_PER_COMPANY, employees.size());
+        assertEquals(COMPANIES, employees.stream().map(employee -> employee.getCompany().getName()).distinct().count());
+        assertEquals(1, statistics.getPrepareStatementCount() - statements);
+    }
+
+    /**
+     * A projeção lê apenas id e documento, sem carregar nenhuma entidade.
+     */
+    @Test
+    public void findDocumentsByCompany_loadsNoEntities() {
+        long statements = statistics.getPrepareStatementCount();
+        long loaded = statistics.getEntityLoadCount();
+
+        List<EmployeeDocument> documents = employeeRepository.findDocumentsByCompany(companies.get(1));
+
+        assertEquals(EMPLOYEES_PER_COMPANY, documents.size());
+        assertEquals(String.format("%011d", EMPLOYEES_PER_COMPANY + 1), documents.get(0).getDocument());
+        assertEquals(1, statistics.getPrepareStatementCount() - statements);
+        assertEquals(loaded, statistics.getEntityLoadCount());
+    }
+
+    /**
+     * Uma única leitura ordenada agrupa os funcionários de cada empresa, na ordem dos ids, inclusive empresas sem
+     * funcionários.
+     */
+    @Test
+    public void streamAll_groupsEmployeesByCompany() {
+        Company empty = companyRepository.save(Company.builder().document(String.format("%014d", COMPANIES + 1)).build());
+
+        List<CompanyEmployeesDto> dtos;
+        try (Stream<CompanyEmployeesDto> stream = companyEmployeesService.streamAll()) {
+            dtos = stream.collect(Collectors.toList());
+        }
+
+        assertEquals(COMPANIES + 1, dtos.size());
+        for (int i = 0; i < COMPANIES; i++) {
+            CompanyEmployeesDto dto = dtos.get(i);
+            assertEquals(companies.get(i).getId(), dto.getCompany().getId());
+            assertEquals(EMPLOYEES_PER_COMPANY, dto.getEmployees().size());
+            assertTrue(dto.getEmployees().stream().allMatch(employee -> employee.getCompany() == dto.getCompany()));
+        }
+        assertEquals(empty.getId(), dtos.get(COMPANIES).getCompany().getId());
+        assertTrue(dtos.get(COMPANIES).getEmployees().isEmpty());
+    }
+
+    /**
+     * O cursor com chave composta (company.id, id) percorre todos os funcionários uma única vez e na ordem da chave,
+     * com páginas que atravessam a divisa entre empresas, e pode ser retomado pelo token de continuação.
+     */
+    @Test
+    public void employeeCursor_readsEveryEmployeeOnceInKeyOrder() {
+        int pageSize = 7;
+        List<long[]> keys = new ArrayList<>();
+        AtomicReference<String> token = new AtomicReference<>();
+        transactionService.runInTransaction(() -> {
+            KeysetCursor<Employee> cursor = largeReadService.employeeCursor(pageSize);
+            for (List<Employee> page : cursor) {
+                page.forEach(employee -> keys.add(new long[]{employee.getCompany().getId(), employee.getId()}));
+                if (keys.size() == 3 * pageSize) {
+                    token.set(cursor.getContinuationToken());
+                }
+            }
+        });
+
+        assertEquals(COMPANIES * EMPLOYEES_PER_COMPANY, keys.size());
+        for (int i = 1; i < keys.size(); i++) {
+            long[] previous = keys.get(i - 1);
+            long[] current = keys.get(i);
+            assertTrue(previous[0] < current[0] || (previous[0] == current[0] && previous[1] < current[1]),
+                    "Keys out of order at " + i);
+        }
+
+        AtomicReference<Long> firstResumed = new AtomicReference<>();
+        AtomicInteger resumed = new AtomicInteger();
+        transactionService.runInTransaction(() -> largeReadService.employeeCursor(pageSize)
+                .resumeFrom(token.get())
+                .forEach(page -> {
+                    if (firstResumed.get() == null) {
+                        firstResumed.set(page.get(0).getId());
+                    }
+                    resumed.addAndGet(page.size());
+                }));
+        assertEquals(keys.size() - 3 * pageSize, resumed.get());
+        assertEquals(keys.get(3 * pageSize)[1], firstResumed.get());
+    }
+
+    @Test
+    public void streamByIds_returnsOnlyRequestedCompanies() {
+        List<Long> ids = List.of(companies.get(7).getId(), companies.get(2).getId(), -1L);
+
+        List<Long> read;
+        try (Stream<CompanyEmployeesDto> stream = companyEmployeesService.stream(ids)) {
+            read = stream.map(dto -> dto.getCompany().getId()).collect(Collectors.toList());
+        }
+
+        assertEquals(List.of(companies.get(2).getId(), companies.get(7).getId()), read);
+        CompanyEmployeesDto single = companyEmployeesService.find(companies.get(4).getId()).orElseThrow();
+        assertEquals(EMPLOYEES_PER_COMPANY, single.getEmployees().size());
+        assertEquals(String.format("%011d", 4 * EMPLOYEES_PER_COMPANY + 1), single.getEmployees().get(0).getDocument());
+        assertTrue(companyEmployeesService.find(-1L).isEmpty());
+    }
+
+    /**
+     * O DTO por construtor, a lista de documentos e o caminho JdbcTemplate com RowMapper retornam os mesmos dados da
+     * leitura de entidades, sem carregar nenhuma entidade.
+     */
+    @Test
+    public void projections_loadNoEntities() {
+        Company company = companies.get(3);
+        // findByCompany não ordena, as projeções ordenam por id
+        List<EmployeeSummary> expected = employeeService.findByCompany(company).stream()
+                .sorted(Comparator.comparing(Employee::getId))
+                .map(employee -> new EmployeeSummary(employee.getId(), employee.getDocument(), employee.getSalary(), company.getId()))
+                .collect(Collectors.toList());
+        long loaded = statistics.getEntityLoadCount();
+
+        List<EmployeeSummary> summaries = employeeRepository.findSummariesByCompany(company);
+        List<String> documents = employeeRepository.listDocumentsByCompany(company);
+        List<EmployeeSummary> jdbcSummaries = employeeBatchRepository.findSummariesByCompany(company.getId());
+
+        assertEquals(expected, summaries);
+        assertEquals(expected, jdbcSummaries);
+        assertEquals(expected.stream().map(EmployeeSummary::getDocument).collect(Collectors.toList()), documents);
+        assertEquals(documents, employeeBatchRepository.findDocumentsByCompany(company.getId()));
+        assertEquals(loaded, statistics.getEntityLoadCount());
+    }
+}
@@ -3,15 +3,21 @@ package com.pensarcomodev.transactional;
 import com.pensarcomodev.transactional.concurrency.ParallelTransactions;
 import com.pensarcomodev.transactional.entity.Company;
 import com.pensarcomodev.transactional.entity.CompanyNoIdGeneration;
+import com.pensarcomodev.transactional.entity.CompanyVersioned;
+import com.pensarcomodev.transactional.repository.CompanyVersionedRepository;
+import com.pensarcomodev.transactional.service.OptimisticUpdateService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -23,6 +29,16 @@ import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORT
 public class EntityManagerTest extends AbstractTest {
 
     private static final Logger log = LoggerFactory.getLogger(EntityManagerTest.class);
+
+    @Autowired
+    private CompanyVersionedRepository companyVersionedRepository;
+
+    @Autowired
+    private OptimisticUpdateService optimisticUpdateService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     private Long companyId;
 
     @BeforeEach
@@ -61,7 +77,7 @@ public class EntityManagerTest extends AbstractTest {
         AtomicReference<Company> companyBd = new AtomicReference<>();
         AtomicReference<Company> companyBd2 = new AtomicReference<>();
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     companyBd.set(companyRepository.findById(companyId).orElseThrow());
                 })
@@ -87,7 +103,7 @@ public class EntityManagerTest extends AbstractTest {
 
         AtomicReference<Company> companyBd = new AtomicReference<>();
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     companyBd.set(companyRepository.findById(companyId).orElseThrow());
                 })
@@ -115,7 +131,7 @@ public class EntityManagerTest extends AbstractTest {
 
         AtomicReference<Company> companyBd = new AtomicReference<>();
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     companyBd.set(companyRepository.findById(companyId).orElseThrow());
                 })
@@ -150,7 +166,7 @@ public class EntityManagerTest extends AbstractTest {
 
         AtomicReference<Company> companyBd = new AtomicReference<>();
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     companyBd.set(companyRepository.findById(companyId).orElseThrow());
                 })
@@ -171,6 +187,68 @@ public class EntityManagerTest extends AbstractTest {
         assertEquals("COMPANY 1", company.getName());
     }
 
+    /**
+     * Mesmo cenário da anterior, com a entidade versionada CompanyVersioned. O update de T1 inclui a condição
+     * "where version = ?" com a versão lida antes da alteração de T2, não encontra o registro e falha com
+     * ObjectOptimisticLockingFailureException em vez de sobrescrever o nome alterado por T2.
+     */
+    @Test
+    public void twoParallelUpdatesVersioned_secondFails() {
+
+        AtomicReference<CompanyVersioned> companyBd = new AtomicReference<>();
+
+        ParallelTransactions.builder(taskExecutorFactory)
+                .action1(() -> {
+                    companyBd.set(companyVersionedRepository.findById(companyId).orElseThrow());
+                })
+                .action2(() -> {
+                    CompanyVersioned company2 = companyVersionedRepository.findById(companyId).orElseThrow();
+                    company2.setName("ENTERPRISE");
+                    companyVersionedRepository.saveAndFlush(company2);
+                })
+                .action1(() -> {
+                    CompanyVersioned company = companyBd.get();
+                    company.setDocument("000000000000");
+                    assertThrows(ObjectOptimisticLockingFailureException.class, () -> companyVersionedRepository.saveAndFlush(company));
+                })
+                .execute(transactionService::transactional, transactionService::transactional);
+
+        CompanyVersioned company = companyVersionedRepository.findById(companyId).orElseThrow();
+        assertEquals(COMPANY_DOCUMENT, company.getDocument());
+        assertEquals("ENTERPRISE", company.getName());
+        assertEquals(1L, company.getVersion());
+    }
+
+    /**
+     * O OptimisticUpdateService reaplica a alteração quando o registro foi alterado por outra transação entre a leitura e
+     * o update. A alteração concorrente é feita pela entidade Company, sem versão, e a trigger da tabela incrementa a
+     * versão mesmo assim. Ao final ambas as alterações estão persistidas.
+     */
+    @Test
+    public void optimisticUpdate_reappliesChangeOnConflict() {
+
+        AtomicInteger attempts = new AtomicInteger();
+        double conflictsBefore = meterRegistry.counter("optimistic_lock.conflicts", "entity", "CompanyVersioned").count();
+
+        optimisticUpdateService.update(CompanyVersioned.class, companyId, company -> {
+            if (attempts.incrementAndGet() == 1) {
+                companyService.saveOnNewTransaction(Company.builder()
+                        .id(companyId)
+                        .document(COMPANY_DOCUMENT)
+                        .name("ENTERPRISE")
+                        .build());
+            }
+            company.setDocument("000000000000");
+        });
+
+        CompanyVersioned company = companyVersionedRepository.findById(companyId).orElseThrow();
+        assertEquals(2, attempts.get());
+        assertEquals("000000000000", company.getDocument());
+        assertEquals("ENTERPRISE", company.getName());
+        assertEquals(2L, company.getVersion());
+        assertEquals(conflictsBefore + 1, meterRegistry.counter("optimistic_lock.conflicts", "entity", "CompanyVersioned").count());
+    }
+
     /**
      * Mesmo cenário da anterior, porém chamando entityManager.refresh() antes de cada alteração.
      * A chamada ao refresh não previne totalmente o comportamento indesejado, pois as alterações podem ocorrer entre
@@ -181,7 +259,7 @@ public class EntityManagerTest extends AbstractTest {
 
         AtomicReference<Company> companyBd = new AtomicReference<>();
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     companyBd.set(companyRepository.findById(companyId).orElseThrow());
                 })
@@ -294,7 +372,8 @@ public class EntityManagerTest extends AbstractTest {
     }
 
     /**
-     * A inserção de registros novos (id gerado pelo banco) acontece imediatamente, não no final da transação.
+     * O id de registros novos é obtido imediatamente da sequence (ou do bloco de ids já reservado), mesmo que o insert
+     * só aconteça no flush.
      */
     @Test
     public void insertingWithoutIdInTransaction_callsDbAndIdIsNotNull() {
@@ -334,7 +413,7 @@ public class EntityManagerTest extends AbstractTest {
 
         AtomicReference<Company> companyBd = new AtomicReference<>();
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     companyBd.set(companyRepository.findById(companyId).orElseThrow());
                 })
@@ -359,7 +438,7 @@ public class EntityManagerTest extends AbstractTest {
         AtomicReference<Company> companyBd = new AtomicReference<>();
         AtomicReference<Long> otherId = new AtomicReference<>();
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     companyBd.set(companyRepository.findById(companyId).orElseThrow());
                 })
@@ -1,15 +1,26 @@
 package com.pensarcomodev.transactional;
 
+import com.pensarcomodev.transactional.dto.BulkLoadResult;
+import com.pensarcomodev.transactional.dto.UpsertResult;
 import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.entity.CompanyIdentityGeneration;
 import com.pensarcomodev.transactional.entity.CompanyNoIdGeneration;
+import com.pensarcomodev.transactional.entity.Employee;
+import com.pensarcomodev.transactional.metrics.HibernateStatisticsExporter;
+import com.pensarcomodev.transactional.repository.BulkCopyRepository;
 import com.pensarcomodev.transactional.repository.CompanyBatchRepository;
+import com.pensarcomodev.transactional.repository.CompanyIdentityGenerationRepository;
 import com.pensarcomodev.transactional.repository.CompanyNoIdGenerationRepository;
 import com.pensarcomodev.transactional.repository.CompanyRepository;
+import com.pensarcomodev.transactional.repository.EmployeeRepository;
 import com.pensarcomodev.transactional.service.LargeReadService;
 import com.pensarcomodev.transactional.util.HibernateUtils;
 import com.pensarcomodev.transactional.util.TimeMetric;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.hibernate.Session;
 import org.hibernate.stat.SessionStatistics;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,11 +31,16 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
 
 @ActiveProfiles("test")
@@ -40,8 +56,14 @@ import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORT
 public class LargeInsertBatchTest {
 
     @Autowired CompanyRepository companyRepository;
+    @Autowired EmployeeRepository employeeRepository;
     @Autowired CompanyNoIdGenerationRepository companyNoIdGenerationRepository;
+    @Autowired CompanyIdentityGenerationRepository companyIdentityGenerationRepository;
     @Autowired CompanyBatchRepository companyBatchRepository;
+    @Autowired BulkCopyRepository bulkCopyRepository;
+    @Autowired EntityManager entityManager;
+    @Autowired HibernateStatisticsExporter hibernateStatisticsExporter;
+    @Autowired MeterRegistry meterRegistry;
 
     private static final Logger log = LoggerFactory.getLogger(LargeInsertBatchTest.class);
 
@@ -51,6 +73,30 @@ public class LargeInsertBatchTest {
      */
     @Test
     public void insertEntityWithIdGeneration_doesNotUseBatch() {
+        companyRepository.deleteAllInBatch();
+        List<CompanyIdentityGeneration> toPersist = new ArrayList<>();
+        TimeMetric timeMetric = new TimeMetric();
+        IntStream.rangeClosed(1, 1000)
+                .mapToObj(i -> CompanyIdentityGeneration.builder()
+                        .document(String.format("%014d", i))
+                        .build())
+                .forEach(c -> {
+                    toPersist.add(c);
+                    if (toPersist.size() == 500) {
+                        companyIdentityGenerationRepository.saveAll(toPersist);
+                        toPersist.clear();
+                    }
+                });
+        log.info("Took {} ms", timeMetric.getDuration());
+    }
+
+    /**
+     * Com @GeneratedValue(strategy = GenerationType.SEQUENCE) e o otimizador pooled-lo o Hibernate reserva blocos de
+     * ids com uma única chamada à sequence e pode adiar os inserts para o flush, agrupando-os em batches JDBC. O log
+     * das estatísticas passa a mostrar "N nanoseconds spent executing 20 JDBC batches;" para 1000 registros.
+     */
+    @Test
+    public void insertEntityWithSequenceIdGeneration_usesBatch() {
         companyRepository.deleteAllInBatch();
         List<Company> toPersist = new ArrayList<>();
         TimeMetric timeMetric = new TimeMetric();
@@ -68,6 +114,79 @@ public class LargeInsertBatchTest {
         log.info("Took {} ms", timeMetric.getDuration());
     }
 
+    /**
+     * O exportador das estatísticas do Hibernate publica a contagem de batches JDBC, que cresce com inserts de entidades
+     * com id gerado por SEQUENCE. Cada insert de entidade com IDENTITY não usa batch e é contabilizado como fallback da
+     * entidade, mesmo quando outra sessão executa batches ao mesmo tempo. As queries mais lentas são publicadas com a
+     * query como tag.
+     */
+    @Test
+    public void statisticsExporter_publishesBatchCountAndFallbacks() {
+        companyRepository.deleteAllInBatch();
+        double batchesBefore = meterRegistry.get("hibernate.jdbc.batches").functionCounter().count();
+        double companyFallbacksBefore = fallbacks(Company.class);
+        double identityFallbacksBefore = fallbacks(CompanyIdentityGeneration.class);
+
+        companyRepository.saveAll(IntStream.rangeClosed(1, 500)
+                .mapToObj(i -> Company.builder().document(String.format("%014d", i)).build())
+                .collect(Collectors.toList()));
+        assertTrue(meterRegistry.get("hibernate.jdbc.batches").functionCounter().count() >= batchesBefore + 10);
+        assertEquals(companyFallbacksBefore, fallbacks(Company.class));
+
+        companyIdentityGenerationRepository.saveAll(IntStream.rangeClosed(501, 1000)
+                .mapToObj(i -> CompanyIdentityGeneration.builder().document(String.format("%014d", i)).build())
+                .collect(Collectors.toList()));
+        assertEquals(identityFallbacksBefore + 500, fallbacks(CompanyIdentityGeneration.class));
+        assertEquals(companyFallbacksBefore, fallbacks(Company.class));
+
+        companyRepository.findAll();
+        hibernateStatisticsExporter.sample();
+        assertFalse(hibernateStatisticsExporter.getSlowestQueries().isEmpty());
+        assertNotNull(meterRegistry.find("hibernate.query.execution.slowest")
+                .tag("query", hibernateStatisticsExporter.getSlowestQueries().get(0).getQuery())
+                .tag("rank", "1")
+                .gauge());
+    }
+
+    private double fallbacks(Class<?> entity) {
+        Counter counter = meterRegistry.find("hibernate.jdbc.batch.fallbacks").tag("entity", entity.getName()).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    /**
+     * Comparação entre IDENTITY e SEQUENCE para 10 mil inserts. Com IDENTITY cada insert é um round trip ao banco,
+     * com SEQUENCE temos um round trip por batch de inserts mais um a cada bloco de ids reservado.
+     */
+    @Test
+    public void sequenceIdGeneration_reducesRoundTripsPer10kInserts() {
+        int total = 10000;
+        Statistics statistics = HibernateUtils.getStatistics(entityManager);
+
+        companyRepository.deleteAllInBatch();
+        statistics.clear();
+        TimeMetric identityMetric = new TimeMetric();
+        companyIdentityGenerationRepository.saveAll(IntStream.rangeClosed(1, total)
+                .mapToObj(i -> CompanyIdentityGeneration.builder().document(String.format("%014d", i)).build())
+                .collect(Collectors.toList()));
+        long identityDuration = identityMetric.getDuration();
+        long identityStatements = statistics.getPrepareStatementCount();
+
+        companyRepository.deleteAllInBatch();
+        statistics.clear();
+        TimeMetric sequenceMetric = new TimeMetric();
+        companyRepository.saveAll(IntStream.rangeClosed(1, total)
+                .mapToObj(i -> Company.builder().document(String.format("%014d", i)).build())
+                .collect(Collectors.toList()));
+        long sequenceDuration = sequenceMetric.getDuration();
+        long sequenceStatements = statistics.getPrepareStatementCount();
+
+        log.info("IDENTITY: {} statements in {} ms, SEQUENCE: {} statements in {} ms",
+                identityStatements, identityDuration, sequenceStatements, sequenceDuration);
+        assertEquals(total, companyRepository.count());
+        assertTrue(sequenceStatements * 10 < identityStatements);
+        assertTrue(sequenceDuration < identityDuration);
+    }
+
     /**
      * Para que a persistência em batch funcione são necessários os seguintes requisitos:
      * - Propriedade definida "spring.jpa.properties.hibernate.jdbc.batch_size=50"
@@ -114,4 +233,102 @@ public class LargeInsertBatchTest {
         log.info("Took {} ms", timeMetric.getDuration());
     }
 
+    /**
+     * Para cargas realmente grandes o protocolo COPY do PostgreSQL evita o parse e planejamento de cada INSERT, enviando
+     * todas as linhas como um fluxo único de dados. Comparando os três caminhos com a mesma massa de 100 mil registros,
+     * o saveAll do repositório é o mais lento, o batch do JdbcTemplate é intermediário e o COPY é o mais rápido.
+     */
+    @Test
+    public void insertUsingCopy_isFasterThanJdbcTemplateAndSaveAll() {
+        int total = 100000;
+
+        companyRepository.deleteAllInBatch();
+        TimeMetric saveAllMetric = new TimeMetric();
+        companyRepository.saveAll(buildCompanies(total));
+        long saveAllDuration = saveAllMetric.getDuration();
+
+        companyRepository.deleteAllInBatch();
+        TimeMetric jdbcTemplateMetric = new TimeMetric();
+        companyBatchRepository.saveAll(buildCompanies(total));
+        long jdbcTemplateDuration = jdbcTemplateMetric.getDuration();
+
+        companyRepository.deleteAllInBatch();
+        BulkLoadResult copyResult = bulkCopyRepository.copyCompanies(buildCompanies(total));
+
+        log.info("saveAll took {} ms, JdbcTemplate took {} ms, COPY took {} ms ({} rows/s)",
+                saveAllDuration, jdbcTemplateDuration, copyResult.getDurationMillis(), copyResult.getRowsPerSecond());
+        assertEquals(total, copyResult.getRows());
+        assertEquals(total, companyRepository.count());
+        assertTrue(copyResult.getDurationMillis() < jdbcTemplateDuration);
+        assertTrue(jdbcTemplateDuration < saveAllDuration);
+    }
+
+    /**
+     * Reexecutar a mesma carga com upsert não falha por documento duplicado: a segunda execução não altera nenhuma
+     * linha, e uma carga com nomes diferentes e documentos novos é separada em inseridos, atualizados e inalterados.
+     * Documentos repetidos na mesma carga contam uma vez e prevalece a última ocorrência.
+     */
+    @Test
+    public void upsertCompanies_isIdempotent() {
+        companyRepository.deleteAllInBatch();
+
+        UpsertResult first = bulkCopyRepository.upsertCompanies(buildCompanies(1000));
+        assertEquals(1000, first.getInserted());
+        assertEquals(0, first.getUpdated());
+
+        UpsertResult rerun = bulkCopyRepository.upsertCompanies(buildCompanies(1000));
+        assertEquals(0, rerun.getInserted());
+        assertEquals(0, rerun.getUpdated());
+        assertEquals(1000, rerun.getUnchanged());
+
+        List<Company> changed = buildCompanies(1200);
+        changed.subList(0, 100).forEach(company -> company.setName("RENAMED"));
+        changed.add(Company.builder().document(String.format("%014d", 1)).name("LAST").build());
+        UpsertResult sync = bulkCopyRepository.upsertCompanies(changed.stream());
+        assertEquals(200, sync.getInserted());
+        assertEquals(100, sync.getUpdated());
+        assertEquals(900, sync.getUnchanged());
+        assertEquals(1200, companyRepository.count());
+        assertEquals("LAST", companyRepository.findByDocument(String.format("%014d", 1)).getName());
+    }
+
+    @Test
+    public void upsertEmployees_updatesOnlyChangedRows() {
+        employeeRepository.deleteAllInBatch();
+        companyRepository.deleteAllInBatch();
+        Company company = companyRepository.save(Company.builder().document(String.format("%014d", 1)).build());
+        try {
+            assertEquals(500, bulkCopyRepository.upsertEmployees(buildEmployees(company, 500)).getInserted());
+
+            List<Employee> employees = buildEmployees(company, 600);
+            employees.subList(0, 50).forEach(employee -> employee.setSalary(BigDecimal.valueOf(6000)));
+            UpsertResult sync = bulkCopyRepository.upsertEmployees(employees);
+
+            assertEquals(100, sync.getInserted());
+            assertEquals(50, sync.getUpdated());
+            assertEquals(450, sync.getUnchanged());
+            assertEquals(600, employeeRepository.count());
+        } finally {
+            employeeRepository.deleteAllInBatch();
+        }
+    }
+
+    private List<Employee> buildEmployees(Company company, int total) {
+        return IntStream.rangeClosed(1, total)
+                .mapToObj(i -> Employee.builder()
+                        .document(String.format("%011d", i))
+                        .salary(BigDecimal.valueOf(5000))
+                        .company(company)
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    private List<Company> buildCompanies(int total) {
+        return IntStream.rangeClosed(1, total)
+                .mapToObj(i -> Company.builder()
+                        .document(String.format("%014d", i))
+                        .build())
+                .collect(Collectors.toList());
+    }
+
 }
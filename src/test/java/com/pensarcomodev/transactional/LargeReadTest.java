@@ -1,10 +1,17 @@
 package com.pensarcomodev.transactional;
 
+import com.pensarcomodev.transactional.dto.ReadModeStats;
 import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.exception.PersistenceContextOverflowException;
 import com.pensarcomodev.transactional.repository.CompanyBatchRepository;
 import com.pensarcomodev.transactional.repository.CompanyRepository;
+import com.pensarcomodev.transactional.repository.KeysetCursor;
 import com.pensarcomodev.transactional.service.LargeReadService;
+import com.pensarcomodev.transactional.service.PartitionedScanService;
+import com.pensarcomodev.transactional.service.PartitionedScanService.ScanOptions;
 import com.pensarcomodev.transactional.util.TimeMetric;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -12,9 +19,14 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
@@ -30,8 +42,10 @@ import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORT
 public class LargeReadTest {
 
     @Autowired LargeReadService largeReadService;
+    @Autowired PartitionedScanService partitionedScanService;
     @Autowired CompanyRepository companyRepository;
     @Autowired CompanyBatchRepository companyBatchRepository;
+    @Autowired MeterRegistry meterRegistry;
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LargeReadTest.class);
 
@@ -71,6 +85,48 @@ public class LargeReadTest {
         assertEquals(0, managedEntities);
     }
 
+    /**
+     * Em uma transação comum cada entidade lida guarda uma cópia do estado carregado, usada no flush para descobrir o
+     * que mudou, o que praticamente dobra a memória por registro e faz o flush percorrer e comparar todas elas. Em uma
+     * transação readOnly as entidades continuam gerenciadas, mas sem a cópia, o flush não tem o que comparar e a conexão
+     * é marcada como somente leitura. A hint org.hibernate.readOnly tem o mesmo efeito apenas nas entidades da query.
+     */
+    @Test
+    public void testReadLargeDataset_readOnlyTransaction() {
+        AtomicLong readWriteHeap = new AtomicLong();
+        AtomicLong readOnlyHeap = new AtomicLong();
+        ReadModeStats readWrite = largeReadService.selectAllOnTransactionStats(() -> readWriteHeap.set(usedHeapAfterGc()));
+        ReadModeStats readOnly = largeReadService.selectAllOnReadOnlyTransaction(() -> readOnlyHeap.set(usedHeapAfterGc()));
+        ReadModeStats hint = largeReadService.selectAllWithReadOnlyHint(() -> { });
+        log.info("Read-write: {} snapshots, flush {} ms, heap {} MB. Read-only: {} snapshots, flush {} ms, heap {} MB",
+                readWrite.getSnapshots(), readWrite.getFlushNanos() / 1_000_000d, readWriteHeap.get() >> 20,
+                readOnly.getSnapshots(), readOnly.getFlushNanos() / 1_000_000d, readOnlyHeap.get() >> 20);
+
+        assertEquals(TOTAL_SIZE, readWrite.getManagedEntities());
+        assertEquals(TOTAL_SIZE, readWrite.getSnapshots());
+        assertFalse(readWrite.isConnectionReadOnly());
+
+        assertEquals(TOTAL_SIZE, readOnly.getManagedEntities());
+        assertEquals(0, readOnly.getSnapshots());
+        assertTrue(readOnly.isConnectionReadOnly());
+        assertTrue(readOnly.getFlushNanos() < readWrite.getFlushNanos());
+
+        assertEquals(TOTAL_SIZE, hint.getManagedEntities());
+        assertEquals(0, hint.getSnapshots());
+        assertFalse(hint.isConnectionReadOnly());
+    }
+
+    /**
+     * A paginação via índice sem clear em uma transação readOnly acumula as entidades da mesma forma, mas sem as
+     * cópias de estado.
+     */
+    @Test
+    public void testSelect_usingIndexPagination_readOnlyTransaction() {
+        ReadModeStats stats = largeReadService.selectIndexPaginationWithReadOnlyTransaction(false, PAGINATION_SIZE);
+        assertEquals(TOTAL_SIZE, stats.getManagedEntities());
+        assertEquals(0, stats.getSnapshots());
+    }
+
     /**
      * Obter um stream de resultado só pode ser feito dentro de um método transacional. Chamar ele sem uma transação causa
      * um erro.
@@ -94,6 +150,17 @@ public class LargeReadTest {
         assertTrue(lastOf(managedEntities) > TOTAL_SIZE * 0.9);
     }
 
+    /**
+     * Um StatelessSession não possui contexto de persistência, portanto lendo via ScrollableResults com cursor
+     * FORWARD_ONLY nenhuma entidade fica gerenciada, mesmo dentro de uma transação e após ler toda a tabela.
+     */
+    @Test
+    public void testStatelessStream_withTransaction() {
+        List<Integer> managedEntities = largeReadService.selectAllWithStatelessStreamWithTransaction(PAGINATION_SIZE);
+        assertEquals(TOTAL_SIZE / 100, managedEntities.size());
+        assertTrue(managedEntities.stream().allMatch(i -> i == 0));
+    }
+
     /**
      * Usar o mecanismo de paginação do Spring é o método mais intuitivo para iterar sobre um conjunto de resultados
      * muito grande, porém é ineficiente a nível de banco para massas muito grandes.
@@ -166,6 +233,133 @@ public class LargeReadTest {
         assertEquals(PAGINATION_SIZE, lastOf(managedEntities));
     }
 
+    /**
+     * Com @PersistenceContextGuard o entityManager é limpo automaticamente antes da leitura de cada página sempre que o
+     * número de entidades gerenciadas passa do limite, sem que o método precise chamar entityManager.clear().
+     */
+    @Test
+    public void testSelect_usingIndexPagination_withGuard() {
+        List<Integer> managedEntities = largeReadService.selectIndexPaginationGuarded(PAGINATION_SIZE);
+        assertEquals(TOTAL_SIZE / PAGINATION_SIZE, managedEntities.size());
+        assertTrue(managedEntities.stream().allMatch(i -> i <= 5000 + PAGINATION_SIZE));
+    }
+
+    /**
+     * O guard também pode falhar rapidamente em vez de limpar o entityManager, evidenciando o método que acumula
+     * entidades demais.
+     */
+    @Test
+    public void testSelect_usingIndexPagination_withFailFastGuard() {
+        assertThrows(PersistenceContextOverflowException.class,
+                () -> largeReadService.selectIndexPaginationGuardedFailFast(PAGINATION_SIZE));
+    }
+
+    /**
+     * O cursor de paginação via índice gera um token de continuação com a chave da última entidade lida. Um novo cursor
+     * criado a partir desse token, como faria um job reiniciado, continua exatamente da página seguinte.
+     */
+    @Test
+    public void testKeysetCursor_resumesFromContinuationToken() {
+        KeysetCursor<Company> cursor = largeReadService.companyCursor(PAGINATION_SIZE);
+        Iterator<List<Company>> pages = cursor.iterator();
+        Long lastIdBeforeRestart = null;
+        for (int i = 0; i < 3; i++) {
+            List<Company> page = pages.next();
+            lastIdBeforeRestart = lastOf(page).getId();
+        }
+        String token = cursor.getContinuationToken();
+
+        List<List<Company>> remainingPages = largeReadService.companyCursor(PAGINATION_SIZE)
+                .resumeFrom(token)
+                .stream()
+                .collect(Collectors.toList());
+
+        assertEquals(TOTAL_SIZE / PAGINATION_SIZE - 3, remainingPages.size());
+        assertTrue(remainingPages.get(0).get(0).getId() > lastIdBeforeRestart);
+    }
+
+    /**
+     * A leitura particionada divide a tabela em faixas de id lidas em paralelo, cada uma em sua conexão. Com o snapshot
+     * consistente todas as faixas enxergam os mesmos dados, e cada registro é entregue exatamente uma vez, tanto pelo
+     * callback quanto pelo stream.
+     */
+    @Test
+    public void testPartitionedScan_readsEveryRowOnce() {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        long rows = partitionedScanService.scan(PartitionedScanService.COMPANY, ScanOptions.builder()
+                        .partitions(4)
+                        .consistentSnapshot(true)
+                        .build(),
+                company -> ids.add(company.getId()));
+        assertEquals(TOTAL_SIZE, rows);
+        assertEquals(TOTAL_SIZE, ids.size());
+
+        try (Stream<Company> stream = partitionedScanService.stream(PartitionedScanService.COMPANY, ScanOptions.builder()
+                .partitions(8)
+                .splitStrategy(PartitionedScanService.SplitStrategy.SAMPLED)
+                .bufferSize(100)
+                .build())) {
+            assertEquals(TOTAL_SIZE, stream.map(Company::getId).distinct().count());
+        }
+    }
+
+    /**
+     * A falha de uma faixa interrompe as demais na próxima linha lida, sem que elas terminem de ler suas faixas, e é a
+     * exceção original que chega ao chamador.
+     */
+    @Test
+    public void testPartitionedScan_failureStopsOtherRanges() {
+        AtomicLong delivered = new AtomicLong();
+        IllegalStateException failure = new IllegalStateException("sink failure");
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () ->
+                partitionedScanService.scan(PartitionedScanService.COMPANY, ScanOptions.builder()
+                                .partitions(4)
+                                .build(),
+                        company -> {
+                            if (delivered.incrementAndGet() == 100) {
+                                throw failure;
+                            }
+                        }));
+        assertSame(failure, thrown);
+        assertTrue(delivered.get() < TOTAL_SIZE / 2, "Other ranges kept reading: " + delivered.get());
+    }
+
+    /**
+     * A varredura particionada usa as conexões do pool bulk, deixando o pool oltp livre. O tempo que cada conexão ficou
+     * fora do pool é registrado por dono, e as métricas do Hikari ficam disponíveis para os dois pools.
+     */
+    @Test
+    public void testPartitionedScan_usesBulkPool() {
+        double oltpHolds = holdCount("oltp", "PartitionedScanService");
+        long rows = partitionedScanService.scan(PartitionedScanService.COMPANY, ScanOptions.builder()
+                        .partitions(4)
+                        .build(),
+                company -> { });
+        assertEquals(TOTAL_SIZE, rows);
+
+        assertTrue(holdCount("bulk", "PartitionedScanService") >= 4);
+        assertEquals(oltpHolds, holdCount("oltp", "PartitionedScanService"));
+        assertNotNull(meterRegistry.find("hikaricp.connections.active").tag("pool", "bulk").gauge());
+        assertNotNull(meterRegistry.find("hikaricp.connections.active").tag("pool", "oltp").gauge());
+        assertNotNull(meterRegistry.find("hikaricp.connections.acquire").tag("pool", "bulk").timer());
+    }
+
+    private double holdCount(String pool, String ownerClass) {
+        return meterRegistry.find("jdbc.connection.hold").tag("pool", pool).timers().stream()
+                .filter(timer -> timer.getId().getTag("owner").startsWith(ownerClass + "."))
+                .mapToLong(Timer::count)
+                .sum();
+    }
+
+    /**
+     * Heap em uso após um System.gc(), aproximado, pois o GC é apenas uma sugestão para a JVM.
+     */
+    private static long usedHeapAfterGc() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
     private <T> T lastOf(List<T> entities) {
         return entities.get(entities.size() - 1);
     }
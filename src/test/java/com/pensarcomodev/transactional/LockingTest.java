@@ -2,19 +2,34 @@ package com.pensarcomodev.transactional;
 
 import com.pensarcomodev.transactional.concurrency.ParallelTransactions;
 import com.pensarcomodev.transactional.concurrency.SequenceLock;
+import com.pensarcomodev.transactional.concurrency.TransactionScheduler;
 import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.entity.Employee;
+import com.pensarcomodev.transactional.service.RetryingTransactionExecutor;
+import com.pensarcomodev.transactional.service.WorkQueueService;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.SneakyThrows;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
 
@@ -25,6 +40,18 @@ public class LockingTest extends AbstractTest {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LockingTest.class);
 
+    @Autowired
+    private RetryingTransactionExecutor retryingTransactionExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private WorkQueueService workQueueService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private List<String> firedFirst;
     private List<String> firedLast;
     private Thread thread1;
@@ -54,8 +81,10 @@ public class LockingTest extends AbstractTest {
      * Apenas uma das transações remova todos os funcionários e a outra não tenha nada para deletar
      *
      * Resultado obtido:
-     * As entidades dos funcionários ficam sendo gerenciadas pelo EntityManager, por isso na segunda chamada ao delete
-     * acontece um erro de tentativa de deleção de entidades que não existem mais
+     * A remoção é feita com um único DELETE ... RETURNING por lote, sem carregar as entidades. A segunda transação fica
+     * bloqueada nos locks de linha adquiridos pelo DELETE da primeira e, após o commit dela, reavalia as linhas e não
+     * encontra mais nada para deletar. Quando os funcionários eram carregados e deletados um a um, as entidades ficavam
+     * gerenciadas pelo EntityManager e a segunda chamada ao delete falhava ao deletar entidades que não existiam mais.
      */
     @Test
     public void testNotLockingRootEntity() {
@@ -67,23 +96,41 @@ public class LockingTest extends AbstractTest {
     }
 
     /**
-     * Mesmo do cenário anterior, com a chamada de deleção em batch
+     * Mesmo do cenário anterior, com a deleção em lotes de 3 funcionários, menores que o total da empresa
      *
      * Resultado esperado:
      * Apenas uma das transações remova todos os funcionários e a outra não tenha nada para deletar
      *
      * Resultado obtido:
-     * Ambas as transações obtém uma lista com todos os funcionários a serem deletados, causando duplicidade na regra
+     * Assim como no cenário anterior, o DELETE ... RETURNING retorna apenas as linhas efetivamente removidas por cada
+     * transação, agora ao longo de dois lotes. Quando a lista de funcionários era lida antes do delete em batch, ambas
+     * as transações obtinham todos os funcionários, causando duplicidade na regra
      */
     @Test
     public void testNotLockingRootEntityFlush() {
 
         runSimultaneouslly(
-                () -> companyService.fireEveryoneBatch(companyId, countDownLatch, firedFirst),
-                () -> companyService.fireEveryoneBatch(companyId, countDownLatch, firedLast));
+                () -> companyService.fireEveryoneBatch(companyId, 3, countDownLatch, firedFirst),
+                () -> companyService.fireEveryoneBatch(companyId, 3, countDownLatch, firedLast));
         assertDeletions();
     }
 
+    /**
+     * Os funcionários carregados na transação antes da deleção em lote são desanexados do EntityManager, já que não
+     * existem mais no banco e um flush posterior tentaria atualizá-los.
+     */
+    @Test
+    public void testDeleteAll_detachesLoadedEmployees() {
+
+        transactionService.runInTransaction(() -> {
+            List<Employee> employees = employeeService.findByCompany(company);
+            assertEquals(4, employees.size());
+            assertEquals(4, employeeService.deleteAll(company).size());
+            employees.forEach(employee -> assertFalse(entityManager.contains(employee)));
+        });
+        assertTrue(employeeRepository.findByCompany(company).isEmpty());
+    }
+
     /**
      * Mesmo do cenário anterior, com a chamada ao select da empresa usando um lock PESSIMISTIC_WRITE
      *
@@ -113,7 +160,9 @@ public class LockingTest extends AbstractTest {
      * Apenas uma das transações remova todos os funcionários e a outra não tenha nada para deletar
      *
      * Resultado obtido:
-     * PESSIMISTIC_READ permite a aquisição simultânea, portanto as transações executam a deleção em duplicidade
+     * PESSIMISTIC_READ permite a aquisição simultânea, portanto ambas as transações chegam à deleção. Com a lista de
+     * funcionários lida antes do delete isso causava duplicidade; com o DELETE ... RETURNING a segunda transação espera
+     * pelos locks de linha da primeira e não retorna nenhum documento
      */
     @Test
     public void testPessimisticRead() {
@@ -134,7 +183,7 @@ public class LockingTest extends AbstractTest {
         AtomicInteger count = new AtomicInteger();
         List<String> firedDocuments = new ArrayList<>();
         SequenceLock sequenceLock = new SequenceLock();
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     Company company = companyRepository.findByIdPessimisticRead(companyId);
                     count.set(employeeService.findByCompany(company).size());
@@ -166,7 +215,7 @@ public class LockingTest extends AbstractTest {
         AtomicInteger count = new AtomicInteger();
         List<String> firedDocuments = new ArrayList<>();
         SequenceLock sequenceLock = new SequenceLock();
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     Company company = companyRepository.findByIdPessimisticWrite(companyId);
                     firedDocuments.addAll(employeeService.deleteAll(company));
@@ -189,6 +238,116 @@ public class LockingTest extends AbstractTest {
         assertTrue(sequenceLock.isRightOrder());
     }
 
+    /**
+     * Duas transações travam as mesmas duas empresas em ordens opostas, causando um deadlock real no banco.
+     *
+     * Resultado obtido:
+     * O Postgres detecta o deadlock e aborta uma das transações com SQLSTATE 40P01. O RetryingTransactionExecutor
+     * classifica a falha, espera um intervalo aleatório e repete a transação inteira, que dessa vez espera o commit da
+     * outra e conclui. Ambas terminam com sucesso em vez de uma delas falhar, e a repetição é registrada na métrica
+     * transaction.retries.
+     */
+    @Test
+    public void testDeadlock_isRetried() {
+
+        Long company2Id = companyRepository.save(Company.builder().document(COMPANY_DOCUMENT_2).build()).getId();
+        double retriesBefore = meterRegistry.counter("transaction.retries", "name", "deadlock", "reason", "deadlock").count();
+        CyclicBarrier bothLockedFirst = new CyclicBarrier(2);
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger committed = new AtomicInteger();
+
+        runSimultaneouslly(
+                lockInOrder(companyId, company2Id, bothLockedFirst, attempts, committed),
+                lockInOrder(company2Id, companyId, bothLockedFirst, attempts, committed));
+
+        assertEquals(2, committed.get());
+        assertEquals(3, attempts.get());
+        assertEquals(retriesBefore + 1, meterRegistry.counter("transaction.retries", "name", "deadlock", "reason", "deadlock").count());
+    }
+
+    /**
+     * Com FOR UPDATE SKIP LOCKED vários workers consomem as empresas como uma fila, cada um travando um lote diferente
+     * em vez de esperar o lock do outro como em testPessimisticWrite.
+     *
+     * Resultado obtido:
+     * Todas as empresas são processadas exatamente uma vez e cada funcionário é demitido por apenas um worker.
+     */
+    @Test
+    public void testSkipLocked_workersClaimDisjointBatches() {
+
+        int companies = 20;
+        int employeesPerCompany = 5;
+        for (int i = 1; i < companies; i++) {
+            Company other = companyRepository.save(Company.builder().document(String.format("%012d", i)).build());
+            for (int j = 0; j < employeesPerCompany; j++) {
+                Employee employee = buildEmployee(1000 * i + j);
+                employee.setCompany(other);
+                employeeRepository.save(employee);
+            }
+        }
+        List<String> fired = Collections.synchronizedList(new ArrayList<>());
+
+        long processed = workQueueService.fireEveryone(4, 2, fired::add);
+
+        assertEquals(companies, processed);
+        assertEquals(4 + (companies - 1) * employeesPerCompany, fired.size());
+        assertEquals(fired.size(), new HashSet<>(fired).size());
+        assertEquals(0, employeeRepository.count());
+    }
+
+    /**
+     * Três transações travam cada uma uma empresa e em seguida tentam travar a empresa da próxima, formando um ciclo.
+     * O TransactionScheduler libera cada passo seguinte assim que observa no pg_stat_activity que a transação anterior
+     * está esperando o lock, sem intervalos fixos.
+     *
+     * Resultado obtido:
+     * O Postgres detecta o deadlock e aborta apenas uma das transações com SQLSTATE 40P01, as outras duas comitam.
+     */
+    @Test
+    public void testThreeWayDeadlock() {
+
+        Long company2Id = companyRepository.save(Company.builder().document(COMPANY_DOCUMENT_2).build()).getId();
+        Long company3Id = companyRepository.save(Company.builder().document("123456000102").build()).getId();
+
+        TransactionScheduler.Result result = TransactionScheduler.builder(jdbcTemplate, taskExecutorFactory)
+                .transaction("T1", transactionService::transactional)
+                .transaction("T2", transactionService::transactional)
+                .transaction("T3", transactionService::transactional)
+                .step("T1", () -> companyRepository.findByIdPessimisticWrite(companyId))
+                .step("T2", () -> companyRepository.findByIdPessimisticWrite(company2Id))
+                .step("T3", () -> companyRepository.findByIdPessimisticWrite(company3Id))
+                .expectBlock("T1", () -> companyRepository.findByIdPessimisticWrite(company2Id))
+                .expectBlock("T2", () -> companyRepository.findByIdPessimisticWrite(company3Id))
+                .expectBlock("T3", () -> companyRepository.findByIdPessimisticWrite(companyId))
+                .execute();
+
+        assertEquals(1, result.getFailures().size());
+        Throwable failure = result.getFailures().values().iterator().next();
+        assertEquals(Optional.of(RetryingTransactionExecutor.RetryableFailure.DEADLOCK),
+                RetryingTransactionExecutor.RetryableFailure.classify(failure));
+        assertEquals(3, result.getCompletionOrder().size());
+    }
+
+    private Runnable lockInOrder(Long first, Long second, CyclicBarrier barrier, AtomicInteger attempts, AtomicInteger committed) {
+        AtomicBoolean firstAttempt = new AtomicBoolean(true);
+        return () -> {
+            retryingTransactionExecutor.run("deadlock", () -> {
+                attempts.incrementAndGet();
+                companyRepository.findByIdPessimisticWrite(first);
+                if (firstAttempt.getAndSet(false)) {
+                    await(barrier);
+                }
+                companyRepository.findByIdPessimisticWrite(second);
+            });
+            committed.incrementAndGet();
+        };
+    }
+
+    @SneakyThrows
+    private static void await(CyclicBarrier barrier) {
+        barrier.await(5, TimeUnit.SECONDS);
+    }
+
     private void startThreads() {
         startThreads(true);
     }
@@ -215,8 +374,8 @@ public class LockingTest extends AbstractTest {
     }
 
     private void runSimultaneouslly(Runnable runnable1, Runnable runnable2) {
-        this.thread1 = new Thread(runnable1);
-        this.thread2 = new Thread(runnable2);
+        this.thread1 = taskExecutorFactory.newThread("Locking-1", runnable1);
+        this.thread2 = taskExecutorFactory.newThread("Locking-2", runnable2);
         startThreads();
     }
 
@@ -0,0 +1,158 @@
+package com.pensarcomodev.transactional;
+
+import com.pensarcomodev.transactional.entity.Company;
+import com.pensarcomodev.transactional.util.HibernateUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManagerFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
+
+@ActiveProfiles({"test", "cache"})
+@Transactional(propagation = NOT_SUPPORTED)
+@SpringBootTest
+public class SecondLevelCacheTest extends AbstractTest {
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Statistics statistics;
+
+    private Long companyId;
+
+    @BeforeEach
+    protected void setUp() {
+        statistics = HibernateUtils.getStatistics(entityManagerFactory);
+        // Ao iniciar o LISTEN a região toda é removida uma vez, antes disso nenhuma notificação é recebida
+        awaitInvalidation("region", 0);
+        long existing = companyRepository.count();
+        // O delete da preparação também é notificado, o insert não. Espera a notificação para que ela não remova a
+        // entrada do cache durante o teste: até 200 ids são removidos um a um, acima disso a região toda
+        double expected = invalidations("entity") + invalidations("region") + (existing > 200 ? 1 : existing);
+        super.setUp();
+        company = companyRepository.save(company);
+        companyId = company.getId();
+        awaitInvalidations(expected);
+    }
+
+    /**
+     * Com o perfil cache, a segunda busca da empresa pelo id em outra sessão é atendida pelo cache de segundo nível
+     * sem executar nenhum comando no banco.
+     */
+    @Test
+    public void findById_secondReadIsServedFromCache() {
+        companyRepository.findById(companyId).orElseThrow();
+        long hits = regionStatistics().getHitCount();
+        long statements = statistics.getPrepareStatementCount();
+
+        Company cached = companyRepository.findById(companyId).orElseThrow();
+
+        assertEquals(COMPANY_DOCUMENT, cached.getDocument());
+        assertEquals(hits + 1, regionStatistics().getHitCount());
+        assertEquals(statements, statistics.getPrepareStatementCount());
+        assertTrue(meterRegistry.find("hibernate.second_level_cache.requests")
+                .tag("region", Company.CACHE_REGION).tag("result", "hit")
+                .functionCounter().count() > 0);
+    }
+
+    /**
+     * Uma escrita que não passa pelo Hibernate, como as feitas por outra instância da aplicação, é notificada pela
+     * trigger após o commit e a empresa é removida do cache, fazendo a próxima leitura buscar o valor novo.
+     */
+    @Test
+    public void writeOutsideHibernate_evictsCachedCompany() {
+        companyRepository.findById(companyId).orElseThrow();
+        assertTrue(entityManagerFactory.getCache().contains(Company.class, companyId));
+
+        double invalidations = invalidations("entity");
+        jdbcTemplate.update("update company set name = ? where id = ?", "RENAMED", companyId);
+        awaitInvalidation("entity", invalidations);
+
+        assertFalse(entityManagerFactory.getCache().contains(Company.class, companyId));
+        assertEquals("RENAMED", companyRepository.findById(companyId).orElseThrow().getName());
+    }
+
+    /**
+     * Sessões sem app.cache_notify = on não enviam notificações, e a empresa continua no cache após a escrita.
+     */
+    @Test
+    public void writeWithoutCacheNotify_isNotNotified() throws InterruptedException {
+        companyRepository.findById(companyId).orElseThrow();
+
+        double invalidations = invalidations("entity") + invalidations("region");
+        transactionService.runInTransaction(() -> {
+            jdbcTemplate.execute("set local app.cache_notify = off");
+            jdbcTemplate.update("update company set name = ? where id = ?", "SILENT", companyId);
+        });
+        Thread.sleep(500);
+
+        assertEquals(invalidations, invalidations("entity") + invalidations("region"));
+        assertTrue(entityManagerFactory.getCache().contains(Company.class, companyId));
+    }
+
+    /**
+     * O payload '*' remove toda a região, usado pela trigger quando um comando altera muitas empresas.
+     */
+    @Test
+    public void evictAllNotification_clearsRegion() {
+        companyRepository.findById(companyId).orElseThrow();
+
+        double invalidations = invalidations("region");
+        jdbcTemplate.queryForList("select pg_notify('company_changed', '*')");
+        awaitInvalidation("region", invalidations);
+
+        assertFalse(entityManagerFactory.getCache().contains(Company.class, companyId));
+    }
+
+    private CacheRegionStatistics regionStatistics() {
+        return statistics.getDomainDataRegionStatistics(Company.CACHE_REGION);
+    }
+
+    private double invalidations(String scope) {
+        Counter counter = meterRegistry.find("hibernate.second_level_cache.invalidations")
+                .tag("region", Company.CACHE_REGION).tag("scope", scope)
+                .counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private void awaitInvalidation(String scope, double before) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (invalidations(scope) <= before) {
+            assertTrue(System.currentTimeMillis() < deadline, "No " + scope + " invalidation received");
+            sleep();
+        }
+    }
+
+    private void awaitInvalidations(double expected) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (invalidations("entity") + invalidations("region") < expected) {
+            assertTrue(System.currentTimeMillis() < deadline, "Invalidations not received");
+            sleep();
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
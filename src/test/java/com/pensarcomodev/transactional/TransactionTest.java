@@ -2,23 +2,37 @@ package com.pensarcomodev.transactional;
 
 import com.pensarcomodev.transactional.concurrency.ParallelTransactions;
 import com.pensarcomodev.transactional.concurrency.SequenceLock;
+import com.pensarcomodev.transactional.dto.StressResult;
 import com.pensarcomodev.transactional.entity.Company;
 import com.pensarcomodev.transactional.entity.Employee;
 import com.pensarcomodev.transactional.exception.SalaryException;
+import com.pensarcomodev.transactional.service.ConcurrencyStressRunner;
+import com.pensarcomodev.transactional.service.SalaryAdjustmentAggregator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.QueryTimeoutException;
 import org.springframework.orm.jpa.JpaSystemException;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -31,6 +45,15 @@ public class TransactionTest extends AbstractTest {
 
     private static final Logger log = LoggerFactory.getLogger(TransactionTest.class);
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private SalaryAdjustmentAggregator salaryAdjustmentAggregator;
+
+    @Autowired
+    private ConcurrencyStressRunner concurrencyStressRunner;
+
     private Company company1 = Company.builder()
             .document(COMPANY_DOCUMENT)
             .name("COMPANY 1")
@@ -119,6 +142,44 @@ public class TransactionTest extends AbstractTest {
         assertEquals(0, employeeRepository.count(), "Expected no employee persisted");
     }
 
+    /**
+     * A criação em lote insere os funcionários em comandos de várias linhas e devolve os ids gerados nas entidades. Os
+     * ids são reservados em blocos da sequence, sem descartar o restante de cada bloco, e ficam contíguos.
+     */
+    @Test
+    public void testBatchCreate_assignsGeneratedIds() throws SalaryException {
+        List<Employee> employees = buildEmployees(2500);
+
+        transactionService.createBatchWithTransaction(buildCompany(), employees);
+
+        assertEquals(1, companyRepository.count());
+        assertEquals(2500, employeeRepository.count());
+        assertTrue(employees.stream().allMatch(employee -> employee.getId() != null));
+        assertEquals(2500, employees.stream().map(Employee::getId).distinct().count());
+        LongSummaryStatistics ids = employees.stream().mapToLong(Employee::getId).summaryStatistics();
+        assertEquals(2499, ids.getMax() - ids.getMin());
+        Employee last = employees.get(employees.size() - 1);
+        assertEquals(last.getDocument(), employeeRepository.findById(last.getId()).orElseThrow().getDocument());
+    }
+
+    /**
+     * Todos os funcionários são validados antes de salvar a empresa, um salário inválido no fim da lista impede
+     * qualquer acesso ao banco, nem o id da empresa é obtido da sequence.
+     */
+    @Test
+    public void testBatchCreate_validatesBeforeInserting() {
+        List<Employee> employees = buildEmployees(3);
+        employees.get(2).setSalary(BigDecimal.valueOf(-100));
+        Company company = buildCompany();
+
+        assertThrows(SalaryException.class, () -> transactionService.createBatchWithTransaction(company, employees));
+
+        assertNull(company.getId());
+        assertEquals(0, companyRepository.count());
+        assertEquals(0, employeeRepository.count());
+        assertTrue(employees.stream().allMatch(employee -> employee.getId() == null));
+    }
+
     /**
      * A persistência feita em um método com REQUIRES_NEW continua mesmo após a transação do método de fora sofrer um rollback
      */
@@ -137,7 +198,7 @@ public class TransactionTest extends AbstractTest {
     @Test
     public void testSimultaneousTransactionsPersisting_noViolationDoesntBlock() {
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     companyRepository.saveAndFlush(company1);
                     log.info("Persisted 1");
@@ -163,7 +224,7 @@ public class TransactionTest extends AbstractTest {
 
         SequenceLock sequenceLock = new SequenceLock();
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     companyRepository.saveAndFlush(company1);
                     log.info("Persisted 1");
@@ -248,7 +309,7 @@ public class TransactionTest extends AbstractTest {
 
         List<Integer> results = new ArrayList<>();
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     int count = (int) companyRepository.count();
                     log.info("Selecting companies, result={}", count);
@@ -316,7 +377,7 @@ public class TransactionTest extends AbstractTest {
         Long companyId = company.getId();
         List<String> names = new ArrayList<>();
 
-        ParallelTransactions parallelTransactions = ParallelTransactions.builder()
+        ParallelTransactions parallelTransactions = ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     Company company = companyRepository.findById(companyId).orElseThrow();
                     String nameBeforeUpdate = company.getName();
@@ -353,7 +414,7 @@ public class TransactionTest extends AbstractTest {
         Long employeeId = employee.getId();
         SequenceLock sequenceLock = new SequenceLock();
 
-        ParallelTransactions.builder()
+        ParallelTransactions.builder(taskExecutorFactory)
                 .action1(() -> {
                     employeeRepository.increaseSalary(employeeId, BigDecimal.valueOf(100));
                 })
@@ -372,6 +433,108 @@ public class TransactionTest extends AbstractTest {
         assertTrue(sequenceLock.isRightOrder());
     }
 
+    /**
+     * Com o SalaryAdjustmentAggregator os aumentos concorrentes no mesmo funcionário são somados em memória e aplicados
+     * em poucos UPDATEs, em vez de cada chamada esperar o lock da linha como em testParallelUpdate. O total final é o
+     * mesmo da soma de todos os aumentos.
+     */
+    @Test
+    public void testParallelUpdate_aggregated() throws Exception {
+
+        company = companyRepository.save(company);
+        List<Employee> employees = persistEmployees(2);
+        int adjustmentsPerThread = 500;
+        int threads = 8;
+        double statementsBefore = meterRegistry.counter("salary.adjustments.statements").count();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<CompletableFuture<Void>>>> submitted = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            submitted.add(executor.submit(() -> {
+                List<CompletableFuture<Void>> futures = new ArrayList<>();
+                for (int i = 0; i < adjustmentsPerThread; i++) {
+                    for (Employee employee : employees) {
+                        futures.add(salaryAdjustmentAggregator.increaseSalary(employee.getId(), BigDecimal.ONE));
+                    }
+                }
+                return futures;
+            }));
+        }
+        for (Future<List<CompletableFuture<Void>>> future : submitted) {
+            CompletableFuture.allOf(future.get().toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        int adjustments = threads * adjustmentsPerThread * employees.size();
+        double statements = meterRegistry.counter("salary.adjustments.statements").count() - statementsBefore;
+        log.info("{} salary adjustments applied with {} statements", adjustments, statements);
+        assertTrue(statements * 10 < adjustments);
+        for (Employee employee : employees) {
+            Employee employeeDb = employeeRepository.findById(employee.getId()).orElseThrow();
+            assertEquals(5000 + threads * adjustmentsPerThread, employeeDb.getSalary().intValue());
+        }
+    }
+
+    /**
+     * Carga concorrente com aumentos de salário, contratações, demissões e leituras por alguns segundos em cada nível de
+     * isolamento.
+     *
+     * Resultado obtido:
+     * Em READ_COMMITTED os aumentos feitos lendo a entidade e gravando o salário somado em memória se sobrescrevem e as
+     * leituras repetidas na mesma transação podem mudar. Em REPEATABLE_READ e SERIALIZABLE os conflitos viram falhas de
+     * serialização repetidas pelo RetryingTransactionExecutor e nenhum invariante é violado, ao custo das novas
+     * tentativas.
+     */
+    @Test
+    public void testStressPerIsolationLevel() {
+
+        List<StressResult> results = concurrencyStressRunner.run(ConcurrencyStressRunner.StressOptions.builder()
+                .isolations(Arrays.asList(Isolation.READ_COMMITTED, Isolation.REPEATABLE_READ, Isolation.SERIALIZABLE))
+                .threads(8)
+                .duration(Duration.ofSeconds(2))
+                .companies(5)
+                .employeesPerCompany(20)
+                .hotEmployees(5)
+                .build());
+
+        assertEquals(3, results.size());
+        for (StressResult result : results) {
+            log.info("{}: {} tps, abort rate {}, retry rate {}, p99 {} ms, salary violations {}, non repeatable reads {}",
+                    result.getIsolation(), result.getCommittedPerSecond(), result.getAbortRate(), result.getRetryRate(),
+                    result.getP99Millis(), result.getSalaryViolations(), result.getNonRepeatableReads());
+            assertTrue(result.getCommitted() > 0);
+            assertEquals(0, result.getOrphanEmployees());
+        }
+        // Sem lost updates em READ_COMMITTED a carga não está gerando disputa, e os zeros abaixo não provariam nada
+        assertTrue(results.get(0).getSalaryViolations() > 0, "READ_COMMITTED must lose updates under this load");
+        for (StressResult result : results.subList(1, 3)) {
+            assertEquals(0, result.getSalaryViolations(), result.getIsolation() + " must not lose updates");
+            assertEquals(0, result.getNonRepeatableReads(), result.getIsolation() + " must repeat reads");
+        }
+    }
+
+    /**
+     * Cada transação física tem sua duração registrada no timer transaction.duration, identificada pelo método
+     * transacional e pelo resultado (commit ou rollback).
+     */
+    @Test
+    public void testTransactionDuration_isRecorded() {
+
+        transactionService.runInTransaction(() -> companyRepository.saveAndFlush(company));
+        assertThrows(DataIntegrityViolationException.class, () -> transactionService.runInTransaction(() -> companyRepository.saveAndFlush(buildCompany())));
+
+        Timer committed = meterRegistry.find("transaction.duration")
+                .tags("name", "TransactionService.runInTransaction", "outcome", "committed")
+                .timer();
+        Timer rolledBack = meterRegistry.find("transaction.duration")
+                .tags("name", "TransactionService.runInTransaction", "outcome", "rolled_back")
+                .timer();
+        assertNotNull(committed);
+        assertNotNull(rolledBack);
+        assertTrue(committed.count() >= 1);
+        assertTrue(rolledBack.count() >= 1);
+    }
+
     private <T extends Exception> void withException(List<Runnable> runnables, Class<T> exception) {
         assertThrows(exception, () -> transactionService.transactional(runnables));
     }